@@ -0,0 +1,132 @@
+package automail;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+/**
+ * The Class AllocationCheck.
+ *
+ * @author Group W13-5
+ * @Description: AllocationCheck measures the bytes the tick loop allocates per tick in quiet mode, with the
+ *               allocation counter of the simulation thread. The configured run is repeated with the Alloc_ properties:
+ *               Alloc_Warmup_Runs runs to warm up the JIT, then Alloc_Runs measured runs, each measured from tick
+ *               Alloc_Skip_Ticks on so the pool's lists have grown to their working size. The most bytes per tick of
+ *               the measured runs are compared with Alloc_Budget, as the runs have different seeds and an allocating
+ *               path may only be taken by some of them, and the check exits with status 1 if they are over it, so a
+ *               change that brings allocation back into the tick loop is caught before long sweeps start collecting
+ *               garbage. A run stopped by the watchdog is measured up to the tick it stopped at, without its report.
+ *
+ *               Usage: java automail.AllocationCheck (on a HotSpot JVM), or ant check, which dist runs too.
+ */
+public class AllocationCheck
+{
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** Measures the bytes one run's tick loop allocates from a tick on. */
+    private static class LoopMeter implements Simulation.LoopObserver
+    {
+        private final int from;
+
+        private boolean started = false;
+
+        private long allocated;
+
+        /** The bytes allocated and the ticks that ran, 0 ticks if the loop stopped before it was measured. */
+        long bytes = 0;
+
+        int ticks = 0;
+
+        LoopMeter(int from)
+        {
+            this.from = from;
+        }
+
+        @Override
+        public void tickStarted(int tick)
+        {
+            if (tick == from) {
+                started = true;
+                allocated = allocatedBytes();
+            }
+        }
+
+        @Override
+        public void loopStopped(int tick)
+        {
+            if (started && tick > from) {
+                bytes = allocatedBytes() - allocated;
+                ticks = tick - from;
+            }
+        }
+    }
+
+    /**
+     * @return the bytes allocated by this thread so far
+     */
+    static long allocatedBytes()
+    {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        Properties properties = Simulation.loadProperties();
+        int warmupRuns = Integer.parseInt(properties.getProperty("Alloc_Warmup_Runs", "10"));
+        int runs = Integer.parseInt(properties.getProperty("Alloc_Runs", "5"));
+        double budget = Double.parseDouble(properties.getProperty("Alloc_Budget", "1"));
+        int skipTicks = Integer.parseInt(properties.getProperty("Alloc_Skip_Ticks", "200"));
+        int firstSeed = Integer.parseInt(properties.getProperty("Seed", "0"));
+        properties.setProperty("Quiet", "true");
+        if (!THREADS.isThreadAllocatedMemorySupported()) {
+            System.out.println("This JVM cannot measure allocation per thread, nothing checked.");
+            return;
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        // reading the counter allocates a little itself, measure that so it is not charged to the tick loop
+        long overhead = -allocatedBytes();
+        overhead += allocatedBytes();
+
+        double most = -1;
+        PrintStream console = System.out;
+        PrintStream errors = System.err;
+        for (int run = 0; run < warmupRuns + runs; run++) {
+            LoopMeter meter = new LoopMeter(skipTicks);
+            System.setOut(BatchServer.discardStream());
+            System.setErr(BatchServer.discardStream());
+            boolean completed;
+            try {
+                completed = Simulation.simulate(properties, String.valueOf(firstSeed + run % Math.max(1, runs)), meter);
+            } finally {
+                System.setOut(console);
+                System.setErr(errors);
+            }
+            if (run < warmupRuns) {
+                continue;
+            }
+            if (meter.ticks == 0) {
+                System.out.printf("Run %d: ended before tick %d%n", run - warmupRuns, skipTicks);
+                continue;
+            }
+            // a run stopped by the watchdog still stepped every tick it ran
+            long bytes = Math.max(0, meter.bytes - overhead);
+            double perTick = (double) bytes / meter.ticks;
+            System.out.printf("Run %d: %d ticks, %d bytes, %.2f bytes per tick%s%n", run - warmupRuns, meter.ticks,
+                bytes, perTick, completed ? "" : " (" + Simulation.getFailure() + ")");
+            most = Math.max(most, perTick);
+        }
+        if (most < 0) {
+            System.out.println("No run was long enough to measure.");
+            System.exit(1);
+        }
+        System.out.printf("Allocation: %.2f bytes per tick, budget %.2f%n", most, budget);
+        if (most > budget) {
+            System.out.println("Over budget, something in the tick loop allocates again.");
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,289 @@
+package automail;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * The Class ArchiveQuery.
+ *
+ * @author Group W13-5
+ * @Description: ArchiveQuery answers questions about a finished run from the archive RunArchive wrote, without running
+ *               it again or reading the whole file. The archive is memory-mapped: the index once, and the records a
+ *               window at a time as they are read. A tick is found through the tick index, an item's events by
+ *               following the chain of its previous events back from the last one, and a robot's events between two
+ *               ticks by starting the chain of the robot at the tick index entry just after the later tick.
+ *
+ *               Usage: java automail.ArchiveQuery <archive> summary | tick <T> [<T2>] | mail <id> | robot <R> <T1>
+ *               <T2>, where a robot is given as R3 or 3.
+ */
+public class ArchiveQuery
+{
+    /** The records mapped at a time. */
+    private static final long WINDOW_RECORDS = 1 << 24;
+
+    private final FileChannel channel;
+
+    private final long records;
+
+    private final int lastTick;
+
+    private final int interval;
+
+    private final int tickEntries;
+
+    private final int robots;
+
+    private final int mailIds;
+
+    /** The index, and the positions of its parts. */
+    private final MappedByteBuffer index;
+
+    private final int robotsAt;
+
+    private final int mailAt;
+
+    private MappedByteBuffer window = null;
+
+    private long windowStart = 0;
+
+    /**
+     * Open an archive to query.
+     *
+     * @param path the archive written by RunArchive
+     * @throws IOException if the file cannot be read, is not an archive or its run did not close it
+     */
+    public ArchiveQuery(String path) throws IOException
+    {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            if (channel.size() < RunArchive.HEADER_BYTES) {
+                throw new IOException(path + " is not a run archive.");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, RunArchive.HEADER_BYTES);
+            if (header.getInt() != RunArchive.MAGIC) {
+                throw new IOException(path + " is not a run archive.");
+            }
+            if (header.getInt() != RunArchive.VERSION) {
+                throw new IOException(path + " was written by a different version.");
+            }
+            records = header.getLong();
+            long indexOffset = header.getLong();
+            lastTick = header.getInt();
+            interval = header.getInt();
+            if (indexOffset == 0) {
+                throw new IOException(path + " has no index, the run writing it did not stop cleanly.");
+            }
+            if (indexOffset != RunArchive.HEADER_BYTES + records * RunArchive.RECORD_BYTES) {
+                throw new IOException(path + " is truncated.");
+            }
+            index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, channel.size() - indexOffset);
+            tickEntries = index.getInt(0);
+            robots = index.getInt(4 + 4 * tickEntries);
+            robotsAt = 8 + 4 * tickEntries;
+            mailAt = robotsAt + 4 * (2 * robots + tickEntries * robots);
+            mailIds = index.getInt(mailAt);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2) {
+            System.err.println("Usage: java automail.ArchiveQuery <archive> summary | tick <T> [<T2>] | mail <id>"
+                + " | robot <R> <T1> <T2>");
+            System.exit(2);
+        }
+        ArchiveQuery query = new ArchiveQuery(args[0]);
+        long start = System.nanoTime();
+        ArrayList<Long> found;
+        switch (args[1]) {
+        case "summary":
+            query.printSummary();
+            found = null;
+            break;
+        case "tick":
+            int from = Integer.parseInt(args[2]);
+            found = query.atTicks(from, (args.length > 3) ? Integer.parseInt(args[3]) : from);
+            break;
+        case "mail":
+            found = query.ofMail(Integer.parseInt(args[2]));
+            break;
+        case "robot":
+            String robot = args[2].startsWith("R") ? args[2].substring(1) : args[2];
+            found = query.ofRobot(Integer.parseInt(robot), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown query: " + args[1]);
+        }
+        if (found != null) {
+            for (long record : found) {
+                System.out.println(query.describe(record));
+            }
+            System.out.printf("%d events in %.2f ms%n", found.size(), (System.nanoTime() - start) / 1e6);
+        }
+        query.close();
+    }
+
+    public void printSummary()
+    {
+        System.out.printf("Records: %d, ticks 0 to %d, index every %d ticks, robots %d, mail ids %d%n", records,
+            lastTick, interval, robots, mailIds);
+    }
+
+    /**
+     * @return the events from one tick to another, both included, in order
+     */
+    public ArrayList<Long> atTicks(int from, int to)
+    {
+        ArrayList<Long> found = new ArrayList<Long>();
+        int entry = Math.max(0, from) / interval;
+        long record = (entry < tickEntries) ? index.getInt(4 + 4 * entry) : records;
+        // the entry is at or before the first tick, so skip up to it
+        for (; record < records && tick(record) <= to; record++) {
+            if (tick(record) >= from) {
+                found.add(record);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the events of a mail item from its arrival, in order
+     */
+    public ArrayList<Long> ofMail(int id)
+    {
+        ArrayList<Long> found = new ArrayList<Long>();
+        long record = (id >= 0 && id < mailIds) ? index.getInt(mailAt + 4 + 4 * id) : -1;
+        for (; record >= 0; record = previousOfMail(record)) {
+            found.add(record);
+        }
+        Collections.reverse(found);
+        return found;
+    }
+
+    /**
+     * @return the events of a robot from one tick to another, both included, in order, led by its last state change
+     *         before the first tick
+     */
+    public ArrayList<Long> ofRobot(int number, int from, int to)
+    {
+        int slot = -1;
+        for (int s = 0; s < robots; s++) {
+            if (index.getInt(robotsAt + 4 * s) == number) {
+                slot = s;
+                break;
+            }
+        }
+        ArrayList<Long> found = new ArrayList<Long>();
+        if (slot < 0) {
+            return found;
+        }
+        // the first entry after the last tick holds the robot's last record before it
+        long entry = (long) to / interval + 1;
+        long record = (entry < tickEntries)
+            ? index.getInt(robotsAt + 4 * (2 * robots + (int) entry * robots + slot))
+            : index.getInt(robotsAt + 4 * (robots + slot));
+        for (; record >= 0; record = previousOfRobot(record)) {
+            int tick = tick(record);
+            if (tick < from) {
+                if (type(record) == RunArchive.STATE) {
+                    found.add(record);
+                    break;
+                }
+            } else if (tick <= to) {
+                found.add(record);
+            }
+        }
+        Collections.reverse(found);
+        return found;
+    }
+
+    /**
+     * @return the byte offset of a record within the window, mapping the window that holds it first
+     */
+    private int offset(long record)
+    {
+        if (window == null || record < windowStart || record >= windowStart + WINDOW_RECORDS) {
+            windowStart = record - record % WINDOW_RECORDS;
+            long count = Math.min(WINDOW_RECORDS, records - windowStart);
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    RunArchive.HEADER_BYTES + windowStart * RunArchive.RECORD_BYTES, count * RunArchive.RECORD_BYTES);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to map the run archive", e);
+            }
+        }
+        return (int) (record - windowStart) * RunArchive.RECORD_BYTES;
+    }
+
+    private int tick(long record)
+    {
+        int at = offset(record);
+        return window.getInt(at);
+    }
+
+    private int type(long record)
+    {
+        int at = offset(record);
+        return window.getShort(at + 4);
+    }
+
+    private long previousOfRobot(long record)
+    {
+        int at = offset(record);
+        return window.getInt(at + 24);
+    }
+
+    private long previousOfMail(long record)
+    {
+        int at = offset(record);
+        return window.getInt(at + 28);
+    }
+
+    /**
+     * @return a line for a record, in the style of the trace
+     */
+    public String describe(long record)
+    {
+        int at = offset(record);
+        int tick = window.getInt(at);
+        int type = window.getShort(at + 4);
+        int code = window.getShort(at + 6);
+        String robot = "R" + window.getInt(at + 8);
+        int mail = window.getInt(at + 12);
+        int a = window.getInt(at + 16);
+        int b = window.getInt(at + 20);
+        switch (type) {
+        case RunArchive.ARRIVAL:
+            return String.format("T: %3d > Arrived [%d] floor %d, weight %d%s", tick, mail, a, b,
+                (code == 0) ? "" : ", priority " + code);
+        case RunArchive.STATE:
+            Robot.RobotState[] states = Robot.RobotState.values();
+            return String.format("T: %3d > %7s changed from %s to %s at floor %.2f", tick, robot, states[b],
+                states[code], Float.intBitsToFloat(a));
+        case RunArchive.DISPATCH:
+            return String.format("T: %3d > %7s-> [%d] in its %s, floor %d", tick, robot, mail,
+                (code == 0) ? "hand" : "tube", a);
+        case RunArchive.RETURN:
+            return String.format("T: %3d > %7s gave [%d] back to the pool", tick, robot, mail);
+        case RunArchive.DELIVERY:
+            return String.format("T: %3d > %7s delivered [%d] to floor %d after %d ticks%s", tick,
+                robot.equals("R-1") ? "unknown" : robot, mail, a, b, (code == 0) ? "" : " in a group");
+        default:
+            return String.format("T: %3d > unknown record type %d", tick, type);
+        }
+    }
+
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,490 @@
+package automail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * The Class AutoTuner.
+ *
+ * @author Group W13-5
+ * @Description: AutoTuner searches the tunables of the loading strategy for the settings with the lowest mean score,
+ *               or the lowest mean final delivery time, over the seeds Seed to Seed + Tune_Seeds - 1 of the scenario in
+ *               automail.properties. The search is evolutionary: the first generation is the current settings and
+ *               random ones, and each later generation is bred from the best settings found so far by crossover and
+ *               mutation. Every run of a generation goes to a SimulationFarm, so they all run in parallel.
+ *
+ *               Each evaluated setting is cached, and with Tune_Cache_File the cache is kept between searches, so a
+ *               setting is never run twice for the same scenario, seeds, tunables and values searched, and build of the
+ *               simulation. The best settings for both objectives are
+ *               reported as property lines, whichever Tune_Objective the search was steered by.
+ *
+ *               The tunables searched are Tune_Parameters, each over the values in Tune_Values_<name> or its default
+ *               range. A setting with a run that fails or times out is never chosen, and settings with fewer runs
+ *               stopped by the watchdog rank first, as some seeds may stall whatever the settings.
+ *
+ *               Usage: java automail.AutoTuner, configured by the Tune_ properties in automail.properties.
+ */
+public class AutoTuner
+{
+    /** The tunables and the values searched by default. */
+    private static final String[][] TUNABLES = {
+        { "Tube_Fill_Weight", "0,200,400,600,800,1000,1200,1400,1600,1800,2000" },
+        { "Pool_Tie_Break", "high,low" },
+        { "Group_Yield", "any,priority,never" },
+        { "Dispatch_Hold_Ticks", "0,1,2,3,4,5,6" },
+        { "Group_Tube_Reach", "-1,0,1,2,3,4" } };
+
+    /** The mean results of a setting over the seeds. */
+    static class Result
+    {
+        double score;
+
+        double finalTime;
+
+        /** The runs stopped by the watchdog, which still report the score and time they reached. */
+        int stopped;
+
+        /** True if a run failed, timed out or gave no result. */
+        boolean broken;
+
+        double objective(String objective)
+        {
+            return objective.equals("score") ? score : finalTime;
+        }
+
+        /**
+         * @return negative if this result is better than the other: not broken, fewer stopped runs, then a lower
+         *         objective
+         */
+        int compareTo(Result other, String objective)
+        {
+            if (broken != other.broken) {
+                return broken ? 1 : -1;
+            }
+            if (stopped != other.stopped) {
+                return stopped - other.stopped;
+            }
+            return Double.compare(objective(objective), other.objective(objective));
+        }
+    }
+
+    private final SimulationFarm farm;
+
+    private final String[] names;
+
+    private final String[][] values;
+
+    private final int firstSeed;
+
+    private final int seeds;
+
+    private final String objective;
+
+    private final Random random;
+
+    /** Every setting evaluated, by its property overrides, in the order evaluated. */
+    private final LinkedHashMap<String, Result> cache = new LinkedHashMap<String, Result>();
+
+    /** The scenario the cache file belongs to, so results of another scenario are not used. */
+    private final String context;
+
+    /** The settings in automail.properties, the first setting searched. */
+    private String currentKey = null;
+
+    public AutoTuner(SimulationFarm farm, String[] names, String[][] values, int firstSeed, int seeds,
+        String objective, long randomSeed, String context)
+    {
+        this.farm = farm;
+        this.names = names;
+        this.values = values;
+        this.firstSeed = firstSeed;
+        this.seeds = seeds;
+        this.objective = objective;
+        this.random = new Random(randomSeed);
+        this.context = context;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        Properties properties = Simulation.loadProperties();
+        int seeds = Integer.parseInt(properties.getProperty("Tune_Seeds", "8"));
+        int generations = Integer.parseInt(properties.getProperty("Tune_Generations", "8"));
+        int population = Integer.parseInt(properties.getProperty("Tune_Population", "12"));
+        String objective = properties.getProperty("Tune_Objective", "score");
+        int workers = Integer.parseInt(properties.getProperty("Tune_Workers",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+        long timeout = 1000 * Long.parseLong(properties.getProperty("Tune_Timeout_Seconds", "60"));
+        long randomSeed = Long.parseLong(properties.getProperty("Tune_Random_Seed", "0"));
+        String cacheFile = properties.getProperty("Tune_Cache_File");
+        int firstSeed = Integer.parseInt(properties.getProperty("Seed", "0"));
+        if (!objective.equals("score") && !objective.equals("final_time")) {
+            throw new IllegalArgumentException("Unknown Tune_Objective: " + objective);
+        }
+        String[] names = properties.getProperty("Tune_Parameters", defaultNames()).split(",");
+        String[][] values = new String[names.length][];
+        for (int p = 0; p < names.length; p++) {
+            names[p] = names[p].trim();
+            values[p] = properties.getProperty("Tune_Values_" + names[p], defaultValues(names[p])).split(",");
+        }
+
+        AutoTuner tuner = new AutoTuner(new SimulationFarm(workers, timeout), names, values, firstSeed, seeds,
+            objective, randomSeed, context(properties, names, values, firstSeed, seeds));
+        System.out.printf("Tuning %s over %d seeds from %d, %d generations of %d%n", String.join(", ", names), seeds,
+            firstSeed, generations, population);
+        try {
+            if (cacheFile != null) {
+                tuner.loadCache(cacheFile);
+            }
+            tuner.search(properties, generations, population);
+            tuner.report();
+        } finally {
+            tuner.farm.close();
+            if (cacheFile != null) {
+                tuner.saveCache(cacheFile);
+            }
+        }
+    }
+
+    private static String defaultNames()
+    {
+        List<String> names = new ArrayList<String>();
+        for (String[] tunable : TUNABLES) {
+            names.add(tunable[0]);
+        }
+        return String.join(",", names);
+    }
+
+    private static String defaultValues(String name)
+    {
+        for (String[] tunable : TUNABLES) {
+            if (tunable[0].equals(name)) {
+                return tunable[1];
+            }
+        }
+        throw new IllegalArgumentException("No values to search for " + name + ", set Tune_Values_" + name);
+    }
+
+    /**
+     * @return a key for the scenario the workers run: the identity of the simulation code, the properties other than
+     *         the Tune_ ones, the tunables and values searched, and the seeds
+     * @throws IOException if the simulation classes cannot be read to identify them
+     */
+    private static String context(Properties properties, String[] names, String[][] values, int firstSeed, int seeds)
+        throws IOException
+    {
+        TreeMap<String, String> scenario = new TreeMap<String, String>();
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.startsWith("Tune_")) {
+                scenario.put(name, properties.getProperty(name));
+            }
+        }
+        for (int p = 0; p < names.length; p++) {
+            scenario.put("Tune_Values_" + names[p], String.join(",", values[p]));
+        }
+        return String.format("%s:%08x:%d+%d", CodeIdentity.get(), scenario.toString().hashCode(), firstSeed,
+            seeds);
+    }
+
+    /**
+     * Run the generations, starting from the current settings.
+     *
+     * @param properties the scenario, for the current value of each tunable
+     * @param generations the number of generations
+     * @param population the settings bred in each generation
+     * @throws InterruptedException if interrupted while waiting for the farm
+     */
+    public void search(Properties properties, int generations, int population) throws InterruptedException
+    {
+        List<int[]> generation = new ArrayList<int[]>();
+        int[] current = new int[names.length];
+        for (int p = 0; p < names.length; p++) {
+            current[p] = indexOf(p, properties.getProperty(names[p]));
+            if (current[p] < 0) {
+                System.out.printf("%s=%s is not one of the values searched, starting from %s%n", names[p],
+                    properties.getProperty(names[p]), values[p][0]);
+                current[p] = 0;
+            }
+        }
+        currentKey = key(current);
+        generation.add(current);
+        while (generation.size() < population) {
+            int[] setting = new int[names.length];
+            for (int p = 0; p < names.length; p++) {
+                setting[p] = random.nextInt(values[p].length);
+            }
+            generation.add(setting);
+        }
+        for (int g = 0; g < generations; g++) {
+            int runs = evaluate(generation);
+            String best = ranked().get(0);
+            System.out.printf("Generation %d: %d settings run, best %s [%s]%n", g, runs, describe(cache.get(best)),
+                best);
+            generation = breed(population);
+        }
+    }
+
+    /**
+     * @return the index of a value of a tunable, -1 if the value is not one searched
+     */
+    private int indexOf(int p, String value)
+    {
+        for (int v = 0; v < values[p].length; v++) {
+            if (values[p][v].trim().equals(value)) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    private String key(int[] setting)
+    {
+        StringBuilder key = new StringBuilder();
+        for (int p = 0; p < names.length; p++) {
+            if (p > 0) {
+                key.append(' ');
+            }
+            key.append(names[p]).append('=').append(values[p][setting[p]].trim());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Run the settings of a generation that are not cached, all seeds of all of them on the farm at once.
+     *
+     * @return the number of settings run
+     * @throws InterruptedException if interrupted while waiting for the farm
+     */
+    private int evaluate(List<int[]> generation) throws InterruptedException
+    {
+        final Map<String, String> settingOf = new HashMap<String, String>();
+        final Map<String, Result> results = new LinkedHashMap<String, Result>();
+        List<String> scenarios = new ArrayList<String>();
+        for (int[] setting : generation) {
+            String key = key(setting);
+            if (cache.containsKey(key) || results.containsKey(key)) {
+                continue;
+            }
+            results.put(key, new Result());
+            for (int s = 0; s < seeds; s++) {
+                String scenario = (firstSeed + s) + " " + key;
+                scenarios.add(scenario);
+                settingOf.put(scenario, key);
+            }
+        }
+        farm.run(scenarios, new SimulationFarm.ResultListener()
+        {
+            @Override
+            public boolean accept(String scenario, Map<String, String> outcome)
+            {
+                Result result = results.get(settingOf.get(scenario));
+                String status = outcome.get("status");
+                if (!"complete".equals(status) && !"stalled".equals(status) && !"tick_budget".equals(status)) {
+                    result.broken = true;
+                    return true;
+                }
+                if (!"complete".equals(status)) {
+                    result.stopped++;
+                }
+                result.score += Double.parseDouble(outcome.get("score")) / seeds;
+                result.finalTime += Double.parseDouble(outcome.get("final_time")) / seeds;
+                return true;
+            }
+        });
+        cache.putAll(results);
+        return results.size();
+    }
+
+    /**
+     * @return the settings evaluated so far, best first
+     */
+    private List<String> ranked()
+    {
+        List<String> keys = new ArrayList<String>(cache.keySet());
+        Collections.sort(keys, new Comparator<String>()
+        {
+            @Override
+            public int compare(String k1, String k2)
+            {
+                return cache.get(k1).compareTo(cache.get(k2), objective);
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * Breed a generation from the best half of the population among all settings evaluated. Each child takes each
+     * tunable from one of two parents, then has at least one tunable mutated, a step to a near value for a numeric
+     * range. Children already evaluated are bred again, a few times at most.
+     */
+    private List<int[]> breed(int population)
+    {
+        List<String> ranked = ranked();
+        List<int[]> parents = new ArrayList<int[]>();
+        for (int k = 0; k < Math.max(2, population / 2) && k < ranked.size(); k++) {
+            parents.add(parse(ranked.get(k)));
+        }
+        List<int[]> children = new ArrayList<int[]>();
+        for (int attempts = 0; children.size() < population && attempts < 20 * population; attempts++) {
+            int[] mother = parents.get(random.nextInt(parents.size()));
+            int[] father = parents.get(random.nextInt(parents.size()));
+            int[] child = new int[names.length];
+            for (int p = 0; p < names.length; p++) {
+                child[p] = random.nextBoolean() ? mother[p] : father[p];
+            }
+            int forced = random.nextInt(names.length);
+            for (int p = 0; p < names.length; p++) {
+                if (p == forced || random.nextInt(names.length) == 0) {
+                    child[p] = mutate(p, child[p]);
+                }
+            }
+            if (!cache.containsKey(key(child))) {
+                children.add(child);
+            }
+        }
+        return children;
+    }
+
+    private int mutate(int p, int value)
+    {
+        int n = values[p].length;
+        if (n <= 3) {
+            return random.nextInt(n);
+        }
+        int step = 1 + random.nextInt(2);
+        return Math.max(0, Math.min(n - 1, value + (random.nextBoolean() ? step : -step)));
+    }
+
+    /**
+     * @return the setting of a key, or null if the key is not a setting of the tunables and values searched
+     */
+    private int[] parse(String key)
+    {
+        int[] setting = new int[names.length];
+        String[] pairs = key.split(" ");
+        if (pairs.length != names.length) {
+            return null;
+        }
+        for (int p = 0; p < names.length; p++) {
+            if (!pairs[p].startsWith(names[p] + "=")) {
+                return null;
+            }
+            setting[p] = indexOf(p, pairs[p].substring(names[p].length() + 1));
+            if (setting[p] < 0) {
+                return null;
+            }
+        }
+        return setting;
+    }
+
+    /**
+     * Print the best settings for each objective, and how the current settings compare.
+     */
+    public void report()
+    {
+        for (String goal : new String[] { "score", "final_time" }) {
+            String best = null;
+            for (String key : cache.keySet()) {
+                if (best == null || cache.get(key).compareTo(cache.get(best), goal) < 0) {
+                    best = key;
+                }
+            }
+            System.out.printf("Best for %s: %s (current settings: %s)%n", goal, describe(cache.get(best)),
+                describe(cache.get(currentKey)));
+            for (String pair : best.split(" ")) {
+                System.out.println("  " + pair);
+            }
+        }
+        System.out.printf("%d settings evaluated%n", cache.size());
+    }
+
+    private static String describe(Result result)
+    {
+        if (result == null) {
+            return "not evaluated";
+        }
+        if (result.broken) {
+            return "a run failed";
+        }
+        return String.format("score %.2f, final_time %.1f%s", result.score, result.finalTime,
+            (result.stopped > 0) ? ", " + result.stopped + " runs stopped" : "");
+    }
+
+    /**
+     * Read the settings evaluated by earlier searches of the same scenario and seeds.
+     */
+    private void loadCache(String file) throws IOException
+    {
+        if (!new File(file).exists()) {
+            return;
+        }
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t");
+                // the context covers the tunables and values, but a setting outside them is never used
+                if (fields.length != 6 || !fields[0].equals(context) || parse(fields[1]) == null) {
+                    continue;
+                }
+                Result result = new Result();
+                result.score = Double.parseDouble(fields[2]);
+                result.finalTime = Double.parseDouble(fields[3]);
+                result.stopped = Integer.parseInt(fields[4]);
+                result.broken = Boolean.parseBoolean(fields[5]);
+                cache.put(fields[1], result);
+            }
+        } finally {
+            in.close();
+        }
+        System.out.printf("%d settings read from %s%n", cache.size(), file);
+    }
+
+    /**
+     * Add the settings evaluated by this search to the cache file, keeping those of other scenarios.
+     */
+    private void saveCache(String file) throws IOException
+    {
+        List<String> others = new ArrayList<String>();
+        if (new File(file).exists()) {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.startsWith(context + "\t")) {
+                        others.add(line);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            for (String line : others) {
+                out.println(line);
+            }
+            for (Map.Entry<String, Result> entry : cache.entrySet()) {
+                Result result = entry.getValue();
+                out.printf("%s\t%s\t%s\t%s\t%d\t%s%n", context, entry.getKey(), result.score, result.finalTime,
+                    result.stopped, result.broken);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+}
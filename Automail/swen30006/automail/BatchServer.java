@@ -0,0 +1,171 @@
+package automail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * The Class BatchServer.
+ *
+ * @author Group W13-5
+ * @Description: BatchServer runs many simulations in one long-lived JVM, so JVM start up and JIT warm-up are paid once
+ *               instead of once per seed. automail.properties is read once at start up. Each input line is one
+ *               scenario: space separated Key=Value property overrides, plus an optional bare seed, e.g.
+ *               "12345 Robots=4 Floors=20". One result line is written per scenario. With Results_Store set, a
+ *               scenario found in the store is answered from it, marked cached=true, and a new one is added to it.
+ *
+ *               Usage: java automail.BatchServer (scenarios from stdin), or java automail.BatchServer <port> (scenarios
+ *               from connections to a local socket, handled one connection at a time).
+ */
+public class BatchServer
+{
+    /** The properties read from automail.properties, copied for every scenario. */
+    private final Properties baseProperties;
+
+    /** The real standard output, simulation logging is discarded while a scenario runs. */
+    private final PrintStream console;
+
+    private final PrintStream discard;
+
+    /** The number of scenarios run so far. */
+    private int scenarios = 0;
+
+    /** The results of scenarios run before, null unless Results_Store is set. */
+    private final ResultStore store;
+
+    /**
+     * Instantiates a BatchServer.
+     *
+     * @param baseProperties the properties every scenario starts from
+     * @throws IOException if the Results_Store cannot be read
+     */
+    public BatchServer(Properties baseProperties) throws IOException
+    {
+        this.baseProperties = baseProperties;
+        this.console = System.out;
+        this.discard = discardStream();
+        String storeFile = baseProperties.getProperty("Results_Store");
+        store = storeFile.equals("none") ? null : new ResultStore(storeFile);
+    }
+
+    /**
+     * @return a stream that throws away everything written to it
+     */
+    static PrintStream discardStream()
+    {
+        return new PrintStream(new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+            {
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        BatchServer server = new BatchServer(Simulation.loadProperties());
+        if (args.length == 0) {
+            PrintWriter out = new PrintWriter(System.out, true);
+            server.serve(new BufferedReader(new InputStreamReader(System.in)), out);
+        } else {
+            /** Only listen on the loopback address, this is not meant to be reachable from other machines */
+            ServerSocket serverSocket = new ServerSocket(Integer.parseInt(args[0]), 0, InetAddress.getLoopbackAddress());
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    try {
+                        server.serve(new BufferedReader(new InputStreamReader(socket.getInputStream())),
+                            new PrintWriter(socket.getOutputStream(), true));
+                    } finally {
+                        socket.close();
+                    }
+                }
+            } finally {
+                serverSocket.close();
+            }
+        }
+    }
+
+    /**
+     * Run each scenario line until the end of input, writing one result line for each.
+     *
+     * @param in the scenario lines
+     * @param out where the result lines are written
+     * @throws IOException if the input cannot be read
+     */
+    public void serve(BufferedReader in, PrintWriter out) throws IOException
+    {
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            out.println(runScenario(line));
+        }
+    }
+
+    /**
+     * Run one scenario.
+     *
+     * @param line the scenario: Key=Value overrides and an optional seed
+     * @return the result line
+     */
+    public String runScenario(String line)
+    {
+        scenarios++;
+        Properties properties = new Properties();
+        properties.putAll(baseProperties);
+        // the trace is discarded anyway, so leave it out unless the scenario asks for it
+        properties.setProperty("Quiet", "true");
+        String seedArg = null;
+        long start = System.nanoTime();
+        String result;
+        System.setOut(discard);
+        try {
+            for (String token : line.split("\\s+")) {
+                int split = token.indexOf('=');
+                if (split < 0) {
+                    seedArg = token;
+                } else {
+                    properties.setProperty(token.substring(0, split), token.substring(split + 1));
+                }
+            }
+            String key = (store == null) ? null : store.keyOf(properties, seedArg);
+            String stored = (key == null) ? null : store.lookup(key);
+            if (stored != null) {
+                return String.format("scenario=%d %s cached=true micros=%d", scenarios, stored,
+                    (System.nanoTime() - start) / 1000);
+            }
+            String status = Simulation.simulate(properties, seedArg) ? "complete" : Simulation.getFailure();
+            result = String.format("status=%s final_time=%d score=%.2f delivered=%d p95_latency=%d fingerprint=%016x",
+                status, Clock.Time(), Simulation.getTotalScore(), Simulation.getDeliveredCount(),
+                Simulation.getLatencyPercentile(95), Fingerprint.get());
+            if (key != null && ResultStore.isReusable(status)) {
+                store.add(key, result);
+            }
+        } catch (Throwable e) {
+            // an assertion or a VM error in one scenario must not take down the server and the scenarios after it
+            Simulation.reset();
+            return String.format("scenario=%d status=error message=\"%s\"", scenarios, e.toString());
+        } finally {
+            System.setOut(console);
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        return String.format("scenario=%d %s micros=%d", scenarios, result, micros);
+    }
+
+}
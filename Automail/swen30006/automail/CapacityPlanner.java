@@ -0,0 +1,144 @@
+package automail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The Class CapacityPlanner.
+ *
+ * @author Group W13-5
+ * @Description: CapacityPlanner finds the smallest fleet that meets a target for the floors and workload in
+ *               automail.properties. The target is a limit on one result metric (p95_latency, final_time or score)
+ *               that must hold in a share of the seeds. The robot count is galloped up (1, 2, 4, ...) until a probe
+ *               passes and then binary searched. Each probe runs its seeds in parallel on a SimulationFarm and stops
+ *               as soon as enough seeds have passed or failed to decide it.
+ *
+ *               Usage: java automail.CapacityPlanner, configured by the Plan_ properties in automail.properties.
+ */
+public class CapacityPlanner
+{
+    private final SimulationFarm farm;
+
+    private final String metric;
+
+    private final double target;
+
+    private final int firstSeed;
+
+    private final int seeds;
+
+    private final double confidence;
+
+    public CapacityPlanner(SimulationFarm farm, String metric, double target, int firstSeed, int seeds,
+        double confidence)
+    {
+        this.farm = farm;
+        this.metric = metric;
+        this.target = target;
+        this.firstSeed = firstSeed;
+        this.seeds = seeds;
+        this.confidence = confidence;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        Properties properties = Simulation.loadProperties();
+        String metric = properties.getProperty("Plan_Metric", "p95_latency");
+        double target = Double.parseDouble(properties.getProperty("Plan_Target", "100"));
+        int seeds = Integer.parseInt(properties.getProperty("Plan_Seeds", "20"));
+        double confidence = Double.parseDouble(properties.getProperty("Plan_Confidence", "0.9"));
+        int maxRobots = Integer.parseInt(properties.getProperty("Plan_Max_Robots", "64"));
+        int workers = Integer.parseInt(properties.getProperty("Plan_Workers",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+        long timeout = 1000 * Long.parseLong(properties.getProperty("Plan_Timeout_Seconds", "60"));
+        int firstSeed = Integer.parseInt(properties.getProperty("Seed", "0"));
+        if (!metric.equals("p95_latency") && !metric.equals("final_time") && !metric.equals("score")) {
+            throw new IllegalArgumentException("Unknown Plan_Metric: " + metric);
+        }
+
+        System.out.printf("Capacity plan: %s <= %s in %.0f%% of %d seeds, Floors: %s%n", metric,
+            properties.getProperty("Plan_Target", "100"), 100 * confidence, seeds, properties.getProperty("Floors"));
+        SimulationFarm farm = new SimulationFarm(workers, timeout);
+        try {
+            int robots = new CapacityPlanner(farm, metric, target, firstSeed, seeds, confidence).plan(maxRobots);
+            if (robots < 0) {
+                System.out.printf("No fleet of up to %d robots meets the target%n", maxRobots);
+            } else {
+                System.out.printf("Cheapest fleet: %d robots%n", robots);
+            }
+        } finally {
+            farm.close();
+        }
+    }
+
+    /**
+     * Gallop up the robot count until a probe passes, then binary search below it.
+     *
+     * @param maxRobots the largest fleet to try
+     * @return the fewest robots that meet the target, or -1 if none up to maxRobots does
+     * @throws InterruptedException if interrupted while probing
+     */
+    public int plan(int maxRobots) throws InterruptedException
+    {
+        int failed = 0;
+        int robots = 1;
+        while (!probe(robots)) {
+            failed = robots;
+            if (robots == maxRobots) {
+                return -1;
+            }
+            robots = Math.min(robots * 2, maxRobots);
+        }
+        int low = failed + 1;
+        int high = robots;
+        while (low < high) {
+            int mid = (low + high) / 2;
+            if (probe(mid)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Run the seeds for one fleet size until the outcome is decided.
+     *
+     * @param robots the number of robots
+     * @return true if the target is met in enough seeds
+     * @throws InterruptedException if interrupted while waiting for the farm
+     */
+    public boolean probe(int robots) throws InterruptedException
+    {
+        List<String> scenarios = new ArrayList<String>();
+        for (int s = 0; s < seeds; s++) {
+            scenarios.add((firstSeed + s) + " Robots=" + robots);
+        }
+        final int needed = (int) Math.ceil(confidence * seeds);
+        final int[] passed = { 0 };
+        final int[] failed = { 0 };
+        farm.run(scenarios, new SimulationFarm.ResultListener()
+        {
+            @Override
+            public boolean accept(String scenario, Map<String, String> result)
+            {
+                if ("complete".equals(result.get("status")) && Double.parseDouble(result.get(metric)) <= target) {
+                    passed[0]++;
+                } else {
+                    failed[0]++;
+                }
+                // stop once the remaining seeds cannot change the outcome
+                return passed[0] < needed && failed[0] <= seeds - needed;
+            }
+        });
+        boolean pass = passed[0] >= needed;
+        System.out.printf("Robots: %3d | passed %3d, failed %3d -> %s%n", robots, passed[0], failed[0],
+            pass ? "PASS" : "FAIL");
+        return pass;
+    }
+
+}
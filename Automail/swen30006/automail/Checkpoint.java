@@ -0,0 +1,350 @@
+package automail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import strategies.Automail;
+import strategies.IMailPool;
+
+/**
+ * The Class Checkpoint.
+ *
+ * @author Group W13-5
+ * @Description: Checkpoint saves the full state of a running simulation at the start of a tick into a compact binary
+ *               file, and restores it so the simulation can be resumed (or forked with more robots) from that tick.
+ *               Mail items and robots are written once into tables and referred to by their index afterwards, so
+ *               shared references (hand, tube, pool, group) are kept when restored.
+ */
+public class Checkpoint
+{
+    /** The magic number and version at the start of every checkpoint file. */
+    private static final int MAGIC = 0x414D434B; // "AMCK"
+
+    private static final int VERSION = 8;
+
+    /** The stream used while saving. */
+    private DataOutputStream out;
+
+    /** The index of each mail item and robot while saving. */
+    private Map<MailItem, Integer> mailIndex;
+
+    private Map<Robot, Integer> robotIndex;
+
+    /** The stream used while loading. */
+    private DataInputStream in;
+
+    /** The mail items and robots restored while loading. */
+    private ArrayList<MailItem> mailTable;
+
+    private Robot[] robotTable;
+
+    /** The restored simulation state. */
+    private Automail automail;
+
+    private MailGenerator mailGenerator;
+
+    private ArrayList<MailItem> delivered;
+
+    private double totalScore;
+
+    /** The delivery latency of each delivered item, in delivery order. */
+    private int[] latencies;
+
+    private Integer seed;
+
+    private Checkpoint()
+    {
+    }
+
+    /**
+     * Save the state of the simulation at the current tick.
+     *
+     * @param file the checkpoint file to write
+     * @param seed the seed of the run, or null if it was random
+     * @param automail the robots and mail pool
+     * @param mailGenerator the generator holding all the mail
+     * @param delivered the mail items delivered so far, in delivery order
+     * @param totalScore the score of the delivered mail items
+     * @param latencies the delivery latency of each delivered item, in delivery order
+     * @param latencyCount the number of latencies used
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(String file, Integer seed, Automail automail, MailGenerator mailGenerator,
+        ArrayList<MailItem> delivered, double totalScore, int[] latencies, int latencyCount) throws IOException
+    {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            checkpoint.write(seed, automail, mailGenerator, delivered, totalScore, latencies, latencyCount);
+        } finally {
+            checkpoint.out.close();
+        }
+    }
+
+    /**
+     * Load a checkpoint and restore the simulation state. Static state (clock, building and generator settings) is
+     * restored immediately, the rest is available from the getters.
+     *
+     * @param file the checkpoint file to read
+     * @param mailPool an empty mail pool to restore into
+     * @param delivery governs the final delivery of the restored robots
+     * @param robots the number of robots wanted, extra robots are added at the mailroom
+     * @throws IOException if the file cannot be read or is not a checkpoint
+     */
+    public static Checkpoint load(String file, IMailPool mailPool, IMailDelivery delivery, int robots)
+        throws IOException
+    {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            checkpoint.read(mailPool, delivery, robots);
+        } finally {
+            checkpoint.in.close();
+        }
+        return checkpoint;
+    }
+
+    private void write(Integer seed, Automail automail, MailGenerator mailGenerator, ArrayList<MailItem> delivered,
+        double totalScore, int[] latencies, int latencyCount) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(Clock.Time());
+        out.writeBoolean(seed != null);
+        out.writeInt(seed == null ? 0 : seed);
+        out.writeInt(Building.FLOORS);
+        out.writeInt(Clock.LAST_DELIVERY_TIME);
+        out.writeInt(mailGenerator.MAIL_TO_CREATE);
+        out.writeInt(mailGenerator.MAIL_MAX_WEIGHT);
+
+        // mail table of the mail still to arrive, in arrival order so the generator can be rebuilt from it
+        if (!mailGenerator.canCheckpoint()) {
+            throw new IllegalStateException("The mail still to arrive is not held by the generator, it cannot be saved");
+        }
+        mailIndex = new IdentityHashMap<MailItem, Integer>();
+        ArrayList<MailItem> allMail = new ArrayList<MailItem>();
+        for (ArrayList<MailItem> arrivals : new TreeMap<Integer, ArrayList<MailItem>>(mailGenerator.getAllMail())
+            .values()) {
+            allMail.addAll(arrivals);
+        }
+        out.writeInt(allMail.size());
+        for (MailItem mailItem : allMail) {
+            writeMailRecord(mailItem);
+        }
+
+        // robot table, then each robot's own state
+        robotIndex = new IdentityHashMap<Robot, Integer>();
+        out.writeInt(automail.robots.length);
+        for (Robot robot : automail.robots) {
+            robotIndex.put(robot, robotIndex.size());
+            out.writeUTF(robot.getID());
+        }
+        for (Robot robot : automail.robots) {
+            robot.writeState(this);
+        }
+
+        automail.mailPool.writeState(this);
+
+        out.writeInt(delivered.size());
+        for (MailItem mailItem : delivered) {
+            writeMail(mailItem);
+        }
+        out.writeDouble(totalScore);
+        out.writeInt(latencyCount);
+        for (int i = 0; i < latencyCount; i++) {
+            out.writeInt(latencies[i]);
+        }
+        out.writeLong(Fingerprint.get());
+    }
+
+    private void read(IMailPool mailPool, IMailDelivery delivery, int robots) throws IOException
+    {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a checkpoint file, or written by another version.");
+        }
+        Clock.setTime(in.readInt());
+        boolean seeded = in.readBoolean();
+        int seedValue = in.readInt();
+        seed = seeded ? seedValue : null;
+        Building.FLOORS = in.readInt();
+        Clock.LAST_DELIVERY_TIME = in.readInt();
+        int mailToCreate = in.readInt();
+        int mailMaxWeight = in.readInt();
+
+        int mailCount = in.readInt();
+        mailTable = new ArrayList<MailItem>(mailCount);
+        Map<Integer, ArrayList<MailItem>> allMail = new HashMap<Integer, ArrayList<MailItem>>();
+        for (int i = 0; i < mailCount; i++) {
+            MailItem mailItem = readMailRecord();
+            if (!allMail.containsKey(mailItem.getArrivalTime())) {
+                allMail.put(mailItem.getArrivalTime(), new ArrayList<MailItem>());
+            }
+            allMail.get(mailItem.getArrivalTime()).add(mailItem);
+        }
+        mailGenerator = new MailGenerator(mailToCreate, mailMaxWeight, mailPool, allMail);
+
+        int robotCount = in.readInt();
+        robotTable = new Robot[Math.max(robotCount, robots)];
+        for (int i = 0; i < robotCount; i++) {
+            robotTable[i] = new Robot(delivery, mailPool, in.readUTF());
+        }
+        for (int i = 0; i < robotCount; i++) {
+            robotTable[i].readState(this);
+        }
+        // extra robots for a forked run start at the mailroom, just like at the start of a run
+        for (int i = robotCount; i < robotTable.length; i++) {
+            robotTable[i] = new Robot(delivery, mailPool);
+        }
+
+        mailPool.readState(this);
+        automail = new Automail(mailPool, robotTable);
+
+        int deliveredCount = in.readInt();
+        delivered = new ArrayList<MailItem>(deliveredCount);
+        for (int i = 0; i < deliveredCount; i++) {
+            delivered.add(readMail());
+        }
+        totalScore = in.readDouble();
+        latencies = new int[in.readInt()];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = in.readInt();
+        }
+        Fingerprint.restore(in.readLong());
+    }
+
+    /**
+     * Get the stream to save primitive state to.
+     */
+    public DataOutputStream getOutput()
+    {
+        return out;
+    }
+
+    /**
+     * Get the stream to load primitive state from.
+     */
+    public DataInputStream getInput()
+    {
+        return in;
+    }
+
+    /**
+     * Save a reference to a mail item.
+     *
+     * @param mailItem the mail item, may be null
+     */
+    public void writeMail(MailItem mailItem) throws IOException
+    {
+        if (mailItem == null) {
+            out.writeInt(-1);
+        } else if (mailIndex.containsKey(mailItem)) {
+            out.writeInt(mailIndex.get(mailItem));
+        } else {
+            // the generator no longer holds mail that has arrived, so it is written where it is first referred to
+            out.writeInt(-2);
+            writeMailRecord(mailItem);
+        }
+    }
+
+    /**
+     * Load a reference to a mail item.
+     *
+     * @return the restored mail item, or null
+     */
+    public MailItem readMail() throws IOException
+    {
+        int index = in.readInt();
+        if (index == -2) {
+            return readMailRecord();
+        }
+        return index < 0 ? null : mailTable.get(index);
+    }
+
+    private void writeMailRecord(MailItem mailItem) throws IOException
+    {
+        mailIndex.put(mailItem, mailIndex.size());
+        out.writeUTF(mailItem.getId());
+        out.writeInt(mailItem.getDestFloor());
+        out.writeInt(mailItem.getArrivalTime());
+        out.writeInt(mailItem.getWeight());
+        out.writeByte((mailItem instanceof PriorityMailItem) ? ((PriorityMailItem) mailItem).getPriorityLevel() : 0);
+    }
+
+    private MailItem readMailRecord() throws IOException
+    {
+        String id = in.readUTF();
+        int destination = in.readInt();
+        int arrival = in.readInt();
+        int weight = in.readInt();
+        int priority = in.readByte();
+        MailItem mailItem = (priority == 0) ? new MailItem(id, destination, arrival, weight)
+            : new PriorityMailItem(id, destination, arrival, weight, priority);
+        mailTable.add(mailItem);
+        return mailItem;
+    }
+
+    /**
+     * Save a reference to a robot.
+     *
+     * @param robot the robot, may be null
+     */
+    public void writeRobot(Robot robot) throws IOException
+    {
+        out.writeInt(robot == null ? -1 : robotIndex.get(robot));
+    }
+
+    /**
+     * Load a reference to a robot.
+     *
+     * @return the restored robot, or null
+     */
+    public Robot readRobot() throws IOException
+    {
+        int index = in.readInt();
+        return index < 0 ? null : robotTable[index];
+    }
+
+    public Automail getAutomail()
+    {
+        return automail;
+    }
+
+    public MailGenerator getMailGenerator()
+    {
+        return mailGenerator;
+    }
+
+    public ArrayList<MailItem> getDelivered()
+    {
+        return delivered;
+    }
+
+    public double getTotalScore()
+    {
+        return totalScore;
+    }
+
+    /**
+     * @return the delivery latency of each item delivered before the checkpoint, in delivery order
+     */
+    public int[] getLatencies()
+    {
+        return latencies;
+    }
+
+    public Integer getSeed()
+    {
+        return seed;
+    }
+
+}
@@ -15,4 +15,9 @@ public class Clock {
     public static void Tick() {
     	Time++;
     }
+
+    /** Restores the current time, used when resuming from a checkpoint **/
+    static void setTime(int time) {
+    	Time = time;
+    }
 }
@@ -0,0 +1,120 @@
+package automail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * The Class CodeIdentity.
+ *
+ * @author Group W13-5
+ * @Description: CodeIdentity hashes every class of the automail, strategies and exceptions packages, from the
+ *               directory or jar the simulation was loaded from, so results kept between runs are only reused by the
+ *               same build. Rebuilding with a changed strategy changes the identity.
+ */
+final class CodeIdentity
+{
+    private static final String[] PACKAGES = { "automail/", "strategies/", "exceptions/" };
+
+    private CodeIdentity()
+    {
+    }
+
+    /**
+     * @return a hash of the class files of the simulation
+     * @throws IOException if the class files cannot be read
+     */
+    static String get() throws IOException
+    {
+        MessageDigest digest = sha256();
+        Path location;
+        try {
+            location = Paths.get(Simulation.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException | NullPointerException e) {
+            throw new IOException("Unable to find the simulation classes to identify them", e);
+        }
+        if (Files.isDirectory(location)) {
+            List<Path> classes = new ArrayList<Path>();
+            try (Stream<Path> files = Files.walk(location)) {
+                files.filter(f -> f.toString().endsWith(".class")).forEach(classes::add);
+            }
+            // sorted by name, so the walk order does not matter
+            TreeSet<String> names = new TreeSet<String>();
+            for (Path f : classes) {
+                names.add(location.relativize(f).toString().replace('\\', '/'));
+            }
+            for (String name : names) {
+                if (inPackages(name)) {
+                    digest.update(name.getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(location.resolve(name)));
+                }
+            }
+        } else {
+            try (JarFile jar = new JarFile(location.toFile())) {
+                TreeSet<String> names = new TreeSet<String>();
+                for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+                    String name = entries.nextElement().getName();
+                    if (name.endsWith(".class") && inPackages(name)) {
+                        names.add(name);
+                    }
+                }
+                byte[] buffer = new byte[8192];
+                for (String name : names) {
+                    digest.update(name.getBytes(StandardCharsets.UTF_8));
+                    try (InputStream in = jar.getInputStream(jar.getJarEntry(name))) {
+                        int read;
+                        while ((read = in.read(buffer)) > 0) {
+                            digest.update(buffer, 0, read);
+                        }
+                    }
+                }
+            }
+        }
+        return hex(digest.digest(), 8);
+    }
+
+    private static boolean inPackages(String name)
+    {
+        for (String prefix : PACKAGES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static MessageDigest sha256()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return the first count bytes in hexadecimal
+     */
+    static String hex(byte[] bytes, int count)
+    {
+        StringBuilder text = new StringBuilder();
+        for (int k = 0; k < count; k++) {
+            text.append(String.format("%02x", bytes[k]));
+        }
+        return text.toString();
+    }
+
+}
@@ -0,0 +1,208 @@
+package automail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import strategies.IMailPool;
+import strategies.MailPool;
+import strategies.ZonedMailPool;
+
+/**
+ * The Class DeliveryEstimator.
+ *
+ * @author Group W13-5
+ * @Description: DeliveryEstimator estimates the tick each pooled or carried mail item will be delivered. A carried
+ *               item follows its robot's route, hand item then tube item. Pooled items are given out in pool order to
+ *               the robots that are free soonest, a robot being free when it is back at the mailroom after its route,
+ *               and each load is timed with the same moves and dispatch ticks as Robot.step. The estimates assume no
+ *               further arrivals, so an item that is later outranked is delivered after its estimate.
+ *
+ *               The estimates are worked out on the first query of a tick and kept until the clock moves on, so any
+ *               number of queries in a tick cost one pass over the pool and the robots and a lookup each. Only the
+ *               items in memory are estimated, not those spilled from a pool with a hot capacity.
+ */
+public class DeliveryEstimator
+{
+    private final IMailPool mailPool;
+
+    private final Robot[] robots;
+
+    /** The estimated delivery tick of each item, by id. */
+    private final HashMap<String, Integer> estimates = new HashMap<String, Integer>();
+
+    /** The tick the estimates were worked out at, -1 before the first query. */
+    private int estimatedAt = -1;
+
+    /** The tick each robot of the pool being estimated can next be loaded at, reused for every pool. */
+    private int[] free = new int[0];
+
+    private boolean[] taken = new boolean[0];
+
+    public DeliveryEstimator(IMailPool mailPool, Robot[] robots)
+    {
+        this.mailPool = mailPool;
+        this.robots = robots;
+    }
+
+    /**
+     * @param id the id of a mail item
+     * @return the estimated delivery tick, or -1 if the item is not pooled in memory or carried
+     */
+    public int estimate(String id)
+    {
+        refresh();
+        Integer tick = estimates.get(id);
+        return (tick == null) ? -1 : tick;
+    }
+
+    /**
+     * @return a copy of the estimates of this tick, by id
+     */
+    public Map<String, Integer> snapshot()
+    {
+        refresh();
+        return new HashMap<String, Integer>(estimates);
+    }
+
+    private void refresh()
+    {
+        if (estimatedAt == Clock.Time()) {
+            return;
+        }
+        estimatedAt = Clock.Time();
+        estimates.clear();
+        if (mailPool instanceof ZonedMailPool) {
+            ZonedMailPool zoned = (ZonedMailPool) mailPool;
+            for (int z = 0; z < zoned.getZoneCount(); z++) {
+                estimatePool(zoned.getZone(z), zoned.getRobots(z));
+            }
+        } else {
+            estimatePool(mailPool, Arrays.asList(robots));
+        }
+    }
+
+    /**
+     * Estimate the items carried by the robots of a pool, then hand out its items to the robots in the order they are
+     * free.
+     */
+    private void estimatePool(IMailPool pool, List<Robot> fleet)
+    {
+        int n = fleet.size();
+        if (free.length < n) {
+            free = new int[n];
+            taken = new boolean[n];
+        }
+        int now = Clock.Time();
+        for (int r = 0; r < n; r++) {
+            free[r] = carried(fleet.get(r), now);
+        }
+        List<MailItem> queue = pool.getQueued();
+        int tubeFillWeight = (pool instanceof MailPool) ? ((MailPool) pool).getTubeFillWeight()
+            : Robot.INDIVIDUAL_MAX_WEIGHT;
+        int k = 0;
+        while (k < queue.size() && n > 0) {
+            MailItem hand = queue.get(k++);
+            // a group leaves when the last of the robots free soonest is loaded
+            int needed = Math.min(n, (hand.getWeight() <= Robot.INDIVIDUAL_MAX_WEIGHT) ? 1
+                : (hand.getWeight() <= Robot.PAIR_MAX_WEIGHT) ? 2 : 3);
+            Arrays.fill(taken, 0, n, false);
+            int load = 0;
+            int last = -1;
+            for (int g = 0; g < needed; g++) {
+                last = soonest(n);
+                taken[last] = true;
+                load = Math.max(load, free[last]);
+            }
+            int mailroom = fleet.get(last).getMailroom();
+            float speed = (needed > 1) ? Robot.GROUP_SPEED : Robot.SINGLE_SPEED;
+            // dispatched in the loading tick, moving from the next
+            int delivered = load + 1 + moves(hand.getDestFloor() - mailroom, speed);
+            estimates.put(hand.getId(), delivered);
+            int back = delivered + moves(hand.getDestFloor() - mailroom, Robot.SINGLE_SPEED) + 2;
+            for (int r = 0; r < n; r++) {
+                if (taken[r]) {
+                    free[r] = back;
+                }
+            }
+            if (k < queue.size() && queue.get(k).getWeight() < tubeFillWeight) {
+                // the tube goes to the robot loaded last
+                MailItem tube = queue.get(k++);
+                int tubeDelivered = delivered + moves(tube.getDestFloor() - hand.getDestFloor(), Robot.SINGLE_SPEED)
+                    + 1;
+                estimates.put(tube.getId(), tubeDelivered);
+                free[last] = tubeDelivered + moves(tube.getDestFloor() - mailroom, Robot.SINGLE_SPEED) + 2;
+            }
+        }
+    }
+
+    /**
+     * @return the robot not yet taken for this load that is free soonest
+     */
+    private int soonest(int n)
+    {
+        int best = -1;
+        for (int r = 0; r < n; r++) {
+            if (!taken[r] && (best < 0 || free[r] < free[best])) {
+                best = r;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the items a robot carries.
+     *
+     * @return the tick the robot can next be loaded at
+     */
+    private int carried(Robot robot, int now)
+    {
+        int mailroom = robot.getMailroom();
+        switch (robot.current_state) {
+        case DELIVERING:
+            return route(robot, now, robot.getCurrentFloor(), robot.isInGroup() ? Robot.GROUP_SPEED
+                : Robot.SINGLE_SPEED);
+        case RETURNING:
+            // registers when it reaches the mailroom, and is loaded in the next tick
+            return now + moves(robot.getCurrentFloor() - mailroom, Robot.SINGLE_SPEED) + 1;
+        default:
+            if (robot.isEmpty() || robot.isInGroup()) {
+                // a group being formed is still at the head of the pool
+                return now;
+            }
+            // held for a tube item, taken to leave now with what it has
+            return route(robot, now + 1, mailroom, Robot.SINGLE_SPEED);
+        }
+    }
+
+    /**
+     * Follow a robot's route from a floor to its hand item then its tube item.
+     *
+     * @return the tick the robot can next be loaded at
+     */
+    private int route(Robot robot, int start, float floor, float speed)
+    {
+        MailItem hand = robot.getDeliveryItem();
+        MailItem tube = robot.getTube();
+        int at = hand.getDestFloor();
+        int tick = start + moves(at - floor, speed);
+        estimates.put(hand.getId(), tick);
+        if (tube != null) {
+            tick += moves(tube.getDestFloor() - at, Robot.SINGLE_SPEED) + 1;
+            estimates.put(tube.getId(), tick);
+            at = tube.getDestFloor();
+        }
+        return tick + moves(at - robot.getMailroom(), Robot.SINGLE_SPEED) + 2;
+    }
+
+    /**
+     * @return the ticks of moves to cover a distance, a robot delivers or registers in the tick after its last move
+     */
+    private static int moves(float distance, float speed)
+    {
+        // a group's steps of a third of a floor do not add up to a whole floor exactly
+        return (int) Math.ceil(Math.abs(distance) / speed - 1e-3);
+    }
+
+}
@@ -0,0 +1,208 @@
+package automail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The Class DeliverySink.
+ *
+ * @author Group W13-5
+ * @Description: DeliverySink records every delivery of a run for later analysis, so results do not have to be scraped
+ *               from the trace. Each record holds the mail id, arrival tick, delivery tick, floor, weight, priority (0
+ *               for normal mail), robot, whether the robot was in a group, and the score of the delivery. Records are
+ *               written through a buffered FileChannel as CSV, or as columnar binary, or only counted.
+ *
+ *               The binary file starts with the int magic "AMDL" and the int version, followed by blocks of up to
+ *               BLOCK_ROWS records. A block is the int number of rows n, then each column in turn: n ints each of
+ *               mail id, arrival, delivered, floor, weight, priority and robot number, n bytes of group flags and n
+ *               doubles of score. All values are big endian.
+ */
+public class DeliverySink
+{
+    public static final int MAGIC = 0x414D444C;
+
+    public static final int VERSION = 1;
+
+    public static final int BLOCK_ROWS = 4096;
+
+    private static final String CSV_HEADER = "mail_id,arrival,delivered,floor,weight,priority,robot,group,score\n";
+
+    /** csv, binary or aggregate. */
+    private final String format;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer;
+
+    /** The columns of the binary block being filled. */
+    private int[][] columns;
+
+    private byte[] group;
+
+    private double[] score;
+
+    private int rows = 0;
+
+    private final StringBuilder line = new StringBuilder();
+
+    /** The aggregates, kept in every format. */
+    private long count = 0;
+
+    private double totalScore = 0;
+
+    private long totalLatency = 0;
+
+    private int maxLatency = 0;
+
+    private long groupDeliveries = 0;
+
+    /**
+     * Instantiates a DeliverySink.
+     *
+     * @param format csv, binary or aggregate
+     * @param file the file to write, not used for aggregate
+     * @throws IOException if the file cannot be created
+     */
+    public DeliverySink(String format, String file) throws IOException
+    {
+        this.format = format;
+        if (format.equals("aggregate")) {
+            channel = null;
+            buffer = null;
+            return;
+        }
+        if (!format.equals("csv") && !format.equals("binary")) {
+            throw new IllegalArgumentException("Unknown Delivery_Sink: " + format);
+        }
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(1 << 16);
+        if (format.equals("csv")) {
+            buffer.put(CSV_HEADER.getBytes(StandardCharsets.US_ASCII));
+        } else {
+            buffer.putInt(MAGIC).putInt(VERSION);
+            columns = new int[7][BLOCK_ROWS];
+            group = new byte[BLOCK_ROWS];
+            score = new double[BLOCK_ROWS];
+        }
+    }
+
+    /**
+     * Record a delivery made at the current tick.
+     *
+     * @param mailItem the item delivered
+     * @param robot the robot that delivered it, or null if not known
+     * @param inGroup true if the robot was in a group
+     * @param deliveryScore the score of the delivery
+     * @throws IOException if the file cannot be written
+     */
+    public void record(MailItem mailItem, Robot robot, boolean inGroup, double deliveryScore) throws IOException
+    {
+        int latency = Clock.Time() - mailItem.getArrivalTime();
+        count++;
+        totalScore += deliveryScore;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+        if (inGroup) {
+            groupDeliveries++;
+        }
+        int priority = (mailItem instanceof PriorityMailItem) ? ((PriorityMailItem) mailItem).getPriorityLevel() : 0;
+        if (format.equals("csv")) {
+            line.setLength(0);
+            line.append(mailItem.getId()).append(',').append(mailItem.getArrivalTime()).append(',')
+                .append(Clock.Time()).append(',').append(mailItem.getDestFloor()).append(',')
+                .append(mailItem.getWeight()).append(',').append(priority).append(',')
+                .append((robot == null) ? "" : robot.getID())
+                .append(',').append(inGroup ? 1 : 0).append(',').append(deliveryScore).append('\n');
+            if (buffer.remaining() < line.length()) {
+                flush();
+            }
+            for (int k = 0; k < line.length(); k++) {
+                buffer.put((byte) line.charAt(k));
+            }
+        } else if (format.equals("binary")) {
+            columns[0][rows] = Integer.parseInt(mailItem.getId());
+            columns[1][rows] = mailItem.getArrivalTime();
+            columns[2][rows] = Clock.Time();
+            columns[3][rows] = mailItem.getDestFloor();
+            columns[4][rows] = mailItem.getWeight();
+            columns[5][rows] = priority;
+            columns[6][rows] = (robot == null) ? -1 : Integer.parseInt(robot.getID().substring(1));
+            group[rows] = (byte) (inGroup ? 1 : 0);
+            score[rows] = deliveryScore;
+            if (++rows == BLOCK_ROWS) {
+                writeBlock();
+            }
+        }
+    }
+
+    private void writeBlock() throws IOException
+    {
+        put(4);
+        buffer.putInt(rows);
+        for (int[] column : columns) {
+            for (int r = 0; r < rows; r++) {
+                put(4);
+                buffer.putInt(column[r]);
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            put(1);
+            buffer.put(group[r]);
+        }
+        for (int r = 0; r < rows; r++) {
+            put(8);
+            buffer.putDouble(score[r]);
+        }
+        rows = 0;
+    }
+
+    /** Make room for a value. */
+    private void put(int bytes) throws IOException
+    {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write out what is left and close the file, or print the aggregates if only aggregating.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void close() throws IOException
+    {
+        if (channel == null) {
+            printSummary();
+            return;
+        }
+        if (rows > 0) {
+            writeBlock();
+        }
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Print the aggregates of the run.
+     */
+    public void printSummary()
+    {
+        System.out.printf("Deliveries: %d, score %.2f, mean latency %.2f, max latency %d, by groups %d%n", count,
+            totalScore, (count == 0) ? 0.0 : (double) totalLatency / count, maxLatency, groupDeliveries);
+    }
+
+}
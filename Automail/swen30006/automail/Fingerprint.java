@@ -0,0 +1,168 @@
+package automail;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The Class Fingerprint.
+ *
+ * @author Group W13-5
+ * @Description: Fingerprint keeps a rolling hash over the events of a run: arrivals, robot state changes, loads and
+ *               deliveries, each with its tick. Two runs with the same fingerprint made the same moves, so a change can
+ *               be checked for identical behaviour across many seeds by comparing one number per run instead of whole
+ *               traces. Every Fingerprint_Interval ticks the hash so far is kept as a checkpoint, and the checkpoints
+ *               can be written to Fingerprint_File to find where two runs first differ (see TraceBisect).
+ */
+public class Fingerprint
+{
+    private static final int ARRIVAL = 1;
+
+    private static final int STATE = 2;
+
+    private static final int LOAD = 3;
+
+    private static final int DELIVERY = 4;
+
+    /** The FNV-1a offset basis and prime, applied to whole ints. */
+    private static final long BASIS = 0xcbf29ce484222325L;
+
+    private static final long PRIME = 0x100000001b3L;
+
+    private static long hash = BASIS;
+
+    private static int interval = 0;
+
+    /** The hash at the end of every interval, and the last tick of the interval. */
+    private static long[] checkpoints = new long[0];
+
+    private static int[] checkpointTicks = new int[0];
+
+    private static int checkpointCount = 0;
+
+    /**
+     * Start a new run.
+     *
+     * @param checkpointInterval the ticks between checkpoints, 0 for none
+     */
+    static void reset(int checkpointInterval)
+    {
+        hash = BASIS;
+        interval = checkpointInterval;
+        checkpointCount = 0;
+    }
+
+    /**
+     * Continue a resumed run from the hash it was saved with.
+     */
+    static void restore(long saved)
+    {
+        hash = saved;
+    }
+
+    public static long get()
+    {
+        return hash;
+    }
+
+    private static void mix(int type, int a, int b, int c)
+    {
+        if (!ZoneStepper.deferFingerprint(type, a, b, c)) {
+            replay(type, a, b, c);
+        }
+    }
+
+    /**
+     * Mix an event into the hash, at the current tick.
+     */
+    static void replay(int type, int a, int b, int c)
+    {
+        long h = hash;
+        h = (h ^ type) * PRIME;
+        h = (h ^ Clock.Time()) * PRIME;
+        h = (h ^ a) * PRIME;
+        h = (h ^ b) * PRIME;
+        hash = (h ^ c) * PRIME;
+    }
+
+    private static int id(MailItem mailItem)
+    {
+        return (mailItem == null) ? 0 : mailItem.getId().hashCode();
+    }
+
+    static void arrival(MailItem mailItem)
+    {
+        int priority = (mailItem instanceof PriorityMailItem) ? ((PriorityMailItem) mailItem).getPriorityLevel() : 0;
+        mix(ARRIVAL, id(mailItem), mailItem.getDestFloor(), mailItem.getWeight() * 128 + priority);
+    }
+
+    static void state(Robot robot, Robot.RobotState state)
+    {
+        mix(STATE, robot.getID().hashCode(), state.ordinal(), Float.floatToIntBits(robot.getCurrentFloor()));
+    }
+
+    static void load(Robot robot, MailItem hand, MailItem tube)
+    {
+        mix(LOAD, robot.getID().hashCode(), id(hand), id(tube));
+    }
+
+    static void delivery(MailItem mailItem)
+    {
+        mix(DELIVERY, id(mailItem), mailItem.getDestFloor(), 0);
+    }
+
+    /**
+     * Keep a checkpoint if the tick that just ended closes an interval.
+     */
+    static void endTick()
+    {
+        if (interval > 0 && (Clock.Time() + 1) % interval == 0) {
+            if (checkpointCount == checkpoints.length) {
+                checkpoints = Arrays.copyOf(checkpoints, Math.max(16, checkpointCount * 2));
+                checkpointTicks = Arrays.copyOf(checkpointTicks, checkpoints.length);
+            }
+            // a resumed run keeps its first checkpoint at the end of the interval it resumed in
+            checkpointTicks[checkpointCount] = Clock.Time();
+            checkpoints[checkpointCount++] = hash;
+        }
+    }
+
+    /**
+     * Write the checkpoints, one "tick hash" line each, the tick being the last tick of the interval.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    static void write(String file) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(file)) {
+            for (int k = 0; k < checkpointCount; k++) {
+                out.printf("%d %016x%n", checkpointTicks[k], checkpoints[k]);
+            }
+            out.printf("end %016x%n", hash);
+        }
+    }
+
+    /**
+     * Read the checkpoints written by write.
+     *
+     * @param file the file to read
+     * @return the lines of the file, each split into the tick and the hash
+     * @throws IOException if the file cannot be read
+     */
+    static ArrayList<String[]> read(String file) throws IOException
+    {
+        ArrayList<String[]> lines = new ArrayList<String[]>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line.trim().split(" "));
+            }
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,204 @@
+package automail;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Class FlightEvents.
+ *
+ * @author Group W13-5
+ * @Description: FlightEvents records the events of SimulationEvents with the Java Flight Recorder. It is only loaded
+ *               when the JDK has jdk.jfr, and the build leaves it out when compiling with a JDK that does not. Each
+ *               helper checks whether the event type is enabled before creating anything, so the simulation allocates
+ *               nothing for them when not recording.
+ */
+final class FlightEvents implements SimulationEvents.Recorder
+{
+    @Name("automail.TickPhase")
+    @Label("Tick Phase")
+    @Category("Automail")
+    @Description("One phase of a tick: MailGenerator.step, MailPool.step or Robot.step")
+    public static class TickPhase extends Event
+    {
+        @Label("Tick")
+        int tick;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Robot")
+        String robot;
+    }
+
+    @Name("automail.LoadRobot")
+    @Label("Load Robot")
+    @Category("Automail")
+    @Description("MailPool loading a waiting robot")
+    public static class LoadRobot extends Event
+    {
+        @Label("Tick")
+        int tick;
+
+        @Label("Robot")
+        String robot;
+
+        @Label("Hand Item")
+        String mailItem;
+
+        @Label("Tube Item")
+        String tubeItem;
+    }
+
+    @Name("automail.Group")
+    @Label("Group")
+    @Category("Automail")
+    @Description("A group of robots for a heavy item being formed, joined, dispatched or dissolved")
+    public static class Group extends Event
+    {
+        @Label("Tick")
+        int tick;
+
+        @Label("Action")
+        String action;
+
+        @Label("Robots")
+        String robots;
+
+        @Label("Mail Item")
+        String mailItem;
+    }
+
+    @Name("automail.Delivery")
+    @Label("Delivery")
+    @Category("Automail")
+    public static class Delivery extends Event
+    {
+        @Label("Tick")
+        int tick;
+
+        @Label("Robot")
+        String robot;
+
+        @Label("Mail Item")
+        String mailItem;
+
+        @Label("Latency")
+        @Description("Ticks from arrival to delivery")
+        int latency;
+    }
+
+    @Name("automail.Failure")
+    @Label("Failure")
+    @Category("Automail")
+    @Description("An ItemTooHeavyException or ExcessiveDeliveryException about to be thrown")
+    public static class Failure extends Event
+    {
+        @Label("Tick")
+        int tick;
+
+        @Label("Exception")
+        String exception;
+
+        @Label("Robot")
+        String robot;
+
+        @Label("Mail Item")
+        String mailItem;
+    }
+
+    /** Never committed, only asked whether their event type is enabled. */
+    private static final TickPhase TICK_PHASE = new TickPhase();
+
+    private static final LoadRobot LOAD_ROBOT = new LoadRobot();
+
+    private static final Group GROUP = new Group();
+
+    private static final Delivery DELIVERY = new Delivery();
+
+    private static final Failure FAILURE = new Failure();
+
+    @Override
+    public Object beginPhase(String phase, Robot robot)
+    {
+        if (!TICK_PHASE.isEnabled()) {
+            return null;
+        }
+        TickPhase event = new TickPhase();
+        event.tick = Clock.Time();
+        event.phase = phase;
+        event.robot = (robot == null) ? null : robot.getID();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Object beginLoad(Robot robot)
+    {
+        if (!LOAD_ROBOT.isEnabled()) {
+            return null;
+        }
+        LoadRobot event = new LoadRobot();
+        event.tick = Clock.Time();
+        event.robot = robot.getID();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endLoad(Object event, MailItem hand, MailItem tube)
+    {
+        LoadRobot load = (LoadRobot) event;
+        load.mailItem = (hand == null) ? null : hand.getId();
+        load.tubeItem = (tube == null) ? null : tube.getId();
+        load.commit();
+    }
+
+    @Override
+    public void end(Object event)
+    {
+        ((Event) event).commit();
+    }
+
+    @Override
+    public void group(String action, GroupRobot group, MailItem mailItem)
+    {
+        if (GROUP.isEnabled()) {
+            Group event = new Group();
+            event.tick = Clock.Time();
+            event.action = action;
+            event.robots = group.toString().trim();
+            event.mailItem = mailItem.getId();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void delivery(Robot robot, MailItem mailItem)
+    {
+        if (DELIVERY.isEnabled()) {
+            Delivery event = new Delivery();
+            event.tick = Clock.Time();
+            event.robot = robot.getID();
+            event.mailItem = mailItem.getId();
+            event.latency = Clock.Time() - mailItem.getArrivalTime();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void failure(String exception, Robot robot, MailItem mailItem)
+    {
+        if (FAILURE.isEnabled()) {
+            Failure event = new Failure();
+            event.tick = Clock.Time();
+            event.exception = exception;
+            event.robot = (robot == null) ? null : robot.getID();
+            event.mailItem = (mailItem == null) ? null : mailItem.getId();
+            event.commit();
+        }
+    }
+
+}
@@ -32,6 +32,20 @@ public class GroupRobot
         this.mailItem = mailItem;
     }
 
+    /**
+     * Start the group again with its first robot, to carry another item once the last one has been dispatched or the
+     * group dissolved. A pool reuses one group rather than making one for every heavy item.
+     *
+     * @param robot the first robot of the group
+     * @param mailItem the mailItem that need to be delivered
+     */
+    public void restart(Robot robot, MailItem mailItem)
+    {
+        robots.clear();
+        robots.add(robot);
+        this.mailItem = mailItem;
+    }
+
     /**
      * Add robot into the arraylist if it is not in the list before.
      *
@@ -40,8 +54,8 @@ public class GroupRobot
     public void addRobot(Robot robot)
     {
         isSameRobot = false;
-        for (Robot r : robots) {
-            if (r.id == robot.id) {
+        for (int i = 0; i < robots.size(); i++) {
+            if (robots.get(i).id == robot.id) {
                 isSameRobot = true;
             }
         }
@@ -74,8 +88,8 @@ public class GroupRobot
      */
     public boolean foundRobot(Robot otherRobot)
     {
-        for (Robot robot : robots) {
-            if (otherRobot.id == robot.id) {
+        for (int i = 0; i < robots.size(); i++) {
+            if (otherRobot.id == robots.get(i).id) {
                 return true;
             }
         }
@@ -10,5 +10,14 @@ public interface IMailDelivery {
      * @param mailItem the mail item being delivered.
      */
 	void deliver(MailItem mailItem);
+
+	/**
+     * Delivers an item at its floor, telling the delivery which robot brought it
+     * @param mailItem the mail item being delivered.
+     * @param robot the robot delivering it, which may be in a group
+     */
+	default void deliver(MailItem mailItem, Robot robot) {
+		deliver(mailItem);
+	}
     
 }
\ No newline at end of file
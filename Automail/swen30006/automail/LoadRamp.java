@@ -0,0 +1,100 @@
+package automail;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Properties;
+
+/**
+ * The Class LoadRamp.
+ *
+ * @author Group W13-5
+ * @Description: LoadRamp finds the sustainable throughput of a fleet. It raises the arrival rate of a Poisson (or the
+ *               configured) workload step by step, and runs each rate over several seeds until the arrival window
+ *               ends. A rate is sustained if the robots delivered enough of the mail that arrived in time to be
+ *               delivered; once the backlog diverges the last sustained rate is reported as the ceiling.
+ *
+ *               Usage: java automail.LoadRamp, configured by the Ramp_ properties in automail.properties.
+ */
+public class LoadRamp
+{
+    public static void main(String[] args) throws IOException
+    {
+        Properties base = Simulation.loadProperties();
+        double rate = Double.parseDouble(base.getProperty("Ramp_Start_Rate", "0.05"));
+        double factor = Double.parseDouble(base.getProperty("Ramp_Factor", "1.25"));
+        double maxRate = Double.parseDouble(base.getProperty("Ramp_Max_Rate", "20"));
+        double threshold = Double.parseDouble(base.getProperty("Ramp_Threshold", "0.9"));
+        int seeds = Integer.parseInt(base.getProperty("Ramp_Seeds", "3"));
+        String window = base.getProperty("Ramp_Window", "1000");
+        String profile = base.getProperty("Arrival_Profile", "uniform");
+        if (profile.equals("uniform")) {
+            profile = "poisson";
+        }
+        base.setProperty("Arrival_Profile", profile);
+        base.setProperty("Last_Delivery_Time", window);
+        int firstSeed = Integer.parseInt(base.getProperty("Seed", "0"));
+
+        System.out.printf("Load ramp: %s arrivals over %s ticks, %s robots, %d seeds%n", profile, window,
+            base.getProperty("Robots"), seeds);
+        double sustained = 0;
+        while (rate <= maxRate) {
+            double served = served(base, rate, firstSeed, seeds);
+            System.out.printf("Rate: %7.3f | Served: %5.1f%%%n", rate, 100 * served);
+            if (served < threshold) {
+                break;
+            }
+            sustained = rate;
+            rate *= factor;
+        }
+        System.out.printf("Sustainable throughput: %.3f mail items per tick with %s robots%n", sustained,
+            base.getProperty("Robots"));
+    }
+
+    /**
+     * Run one arrival rate over several seeds.
+     *
+     * @return the worst share of the mail delivered by the end of the arrival window, counting only mail that
+     *         arrived early enough to be delivered by then
+     */
+    private static double served(Properties base, double rate, int firstSeed, int seeds) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.putAll(base);
+        properties.setProperty("Arrival_Rate", String.valueOf(rate));
+        int lastTick = Integer.parseInt(properties.getProperty("Last_Delivery_Time"));
+        double worst = 1;
+        PrintStream console = System.out;
+        System.setOut(BatchServer.discardStream());
+        try {
+            for (int s = 0; s < seeds; s++) {
+                Simulation.stopTick = lastTick + 1;
+                boolean completed = Simulation.simulate(properties, String.valueOf(firstSeed + s));
+                if (!completed) {
+                    return 0;
+                }
+                // mail arriving in the last round trip to the top floor could not be delivered in time
+                int cutoff = lastTick - 2 * Building.FLOORS;
+                int arrived = 0;
+                for (MailItem m : Simulation.getWorkload()) {
+                    if (m.getArrivalTime() <= cutoff) {
+                        arrived++;
+                    }
+                }
+                int delivered = 0;
+                for (MailItem m : Simulation.getDelivered()) {
+                    if (m.getArrivalTime() <= cutoff) {
+                        delivered++;
+                    }
+                }
+                if (arrived > 0) {
+                    worst = Math.min(worst, (double) delivered / arrived);
+                }
+            }
+        } finally {
+            Simulation.stopTick = -1;
+            System.setOut(console);
+        }
+        return worst;
+    }
+
+}
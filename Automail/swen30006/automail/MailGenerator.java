@@ -1,13 +1,15 @@
 package automail;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
+import strategies.IArrivalSchedule;
 import strategies.IMailPool;
 
 /**
  * This class generates the mail
  */
-public class MailGenerator {
+public class MailGenerator implements IArrivalSchedule {
 
     public final int MAIL_TO_CREATE;
     public final int MAIL_MAX_WEIGHT;
@@ -21,6 +23,23 @@ public class MailGenerator {
     private IMailPool mailPool;
 
     private Map<Integer,ArrayList<MailItem>> allMail;
+    /** The key of each tick with mail still to arrive, by tick, so stepping never boxes the time to look it up */
+    private Integer[] arrivalKeys;
+
+    /** The shape of the workload, null for the original uniform workload, also used by SteadyGenerator */
+    WorkloadProfile profile;
+    /** The arrival times drawn from the profile's rate curve, in order, and the next one to use */
+    private int[] arrivalSchedule;
+    private int nextArrival;
+
+    /** Draw each mail item from its own random stream so generation can run on every core */
+    private final boolean parallel;
+    private long streamSeed;
+
+    /** Separate stream domains for the mail items, the arrivals at each tick and the amount of mail */
+    static final long ITEM_STREAMS = 1;
+    static final long TICK_STREAMS = 2;
+    static final long COUNT_STREAM = 3;
 
     /**
      * Constructor for mail generation
@@ -29,14 +48,49 @@ public class MailGenerator {
      * @param seed random seed for generating mail
      */
     public MailGenerator(int mailToCreate, int mailMaxWeight, IMailPool mailPool, HashMap<Boolean,Integer> seed){
+        this(mailToCreate, mailMaxWeight, mailPool, seed, null, false);
+    }
+
+    /**
+     * Constructor for mail generation following a workload profile
+     * @param mailToCreate roughly how many mail items to create, unless the profile has a rate curve
+     * @param mailPool where mail items go on arrival
+     * @param seed random seed for generating mail
+     * @param profile the shape of the workload, null for the original uniform workload
+     * @param parallel draw each mail item (and the arrivals at each tick) from its own stream derived from the seed,
+     *        so generation runs on every core and is still the same for the same seed (but not the same as serial)
+     */
+    public MailGenerator(int mailToCreate, int mailMaxWeight, IMailPool mailPool, HashMap<Boolean,Integer> seed,
+    		WorkloadProfile profile, boolean parallel){
         if(seed.containsKey(true)){
         	this.random = new Random((long) seed.get(true));
         }
         else{
         	this.random = new Random();	
         }
-        // Vary arriving mail by +/-20%
-        MAIL_TO_CREATE = mailToCreate*4/5 + random.nextInt(mailToCreate*2/5);
+        this.profile = profile;
+        this.parallel = parallel;
+        if(parallel){
+        	streamSeed = seed.containsKey(true) ? seed.get(true) : random.nextLong();
+        }
+        if(profile != null && profile.hasRateCurve()){
+        	// The amount of mail follows from the arrivals drawn at each tick
+        	int[] counts = parallel ? profile.arrivalCounts(streamSeed, Clock.LAST_DELIVERY_TIME)
+        			: profile.arrivalCounts(random, Clock.LAST_DELIVERY_TIME);
+        	int total = 0;
+        	for(int count : counts) total += count;
+        	arrivalSchedule = new int[total];
+        	int k = 0;
+        	for(int t = 1; t < counts.length; t++){
+        		for(int c = 0; c < counts[t]; c++) arrivalSchedule[k++] = t;
+        	}
+        	MAIL_TO_CREATE = total;
+        }
+        else{
+        	// Vary arriving mail by +/-20%
+        	Random count = parallel ? new StreamRandom(streamSeed, COUNT_STREAM, 0) : random;
+        	MAIL_TO_CREATE = mailToCreate*4/5 + count.nextInt(mailToCreate*2/5);
+        }
         MAIL_MAX_WEIGHT = mailMaxWeight;
         // System.out.println("Num Mail Items: "+MAIL_TO_CREATE);
         mailCreated = 0;
@@ -45,15 +99,32 @@ public class MailGenerator {
         this.mailPool = mailPool;
     }
 
+    /**
+     * Constructor for a generator restored from a checkpoint, or replaying a trace, with all its mail already created
+     * @param mailToCreate how many mail items were created
+     * @param mailPool where mail items go on arrival
+     * @param allMail the mail items by arrival time
+     */
+    MailGenerator(int mailToCreate, int mailMaxWeight, IMailPool mailPool, Map<Integer,ArrayList<MailItem>> allMail){
+        this.random = new Random();
+        this.parallel = false;
+        MAIL_TO_CREATE = mailToCreate;
+        MAIL_MAX_WEIGHT = mailMaxWeight;
+        mailCreated = mailToCreate;
+        complete = true;
+        this.allMail = allMail;
+        this.mailPool = mailPool;
+    }
+
     /**
      * @return a new mail item that needs to be delivered
      */
     private MailItem generateMail(){
     	MailItem newMailItem;
-        int dest_floor = generateDestinationFloor();
-        int priority_level = generatePriorityLevel();
+        int dest_floor = generateDestinationFloor(random);
+        int priority_level = generatePriorityLevel(random);
         int arrival_time = generateArrivalTime();
-        int weight = generateWeight();
+        int weight = generateWeight(random, arrival_time);
         // Check if arrival time has a priority mail
         if(	(random.nextInt(6) > 0) ||  // Skew towards non priority mail
         	(allMail.containsKey(arrival_time) &&
@@ -69,21 +140,30 @@ public class MailGenerator {
     /**
      * @return a destination floor between the ranges of GROUND_FLOOR to FLOOR
      */
-    private int generateDestinationFloor(){
+    int generateDestinationFloor(Random random){
+        if(profile != null){
+        	int hotspot = profile.hotspotFloor(random);
+        	if(hotspot > 0) return hotspot;
+        }
         return Building.LOWEST_FLOOR + random.nextInt(Building.FLOORS);
     }
 
     /**
      * @return a random priority level selected from 1 - 100
      */
-    private int generatePriorityLevel(){
+    int generatePriorityLevel(Random random){
         return 10*(1 + random.nextInt(10));
     }
 
     /**
+     * @param arrival_time the arrival time of the mail, heavy surges depend on it
      * @return a random weight
      */
-    private int generateWeight(){
+    int generateWeight(Random random, int arrival_time){
+    	if(profile != null){
+    		int surge = profile.surgeWeight(random, arrival_time, MAIL_MAX_WEIGHT);
+    		if(surge > 0) return surge;
+    	}
     	final double mean = 200.0; // grams for normal item
     	final double stddev = 1000.0; // grams
     	double base = random.nextGaussian();
@@ -96,6 +176,11 @@ public class MailGenerator {
      * @return a random arrival time before the last delivery time
      */
     private int generateArrivalTime(){
+        if(arrivalSchedule != null) return arrivalSchedule[nextArrival++];
+        return generateArrivalTime(random);
+    }
+
+    private int generateArrivalTime(Random random){
         return 1 + random.nextInt(Clock.LAST_DELIVERY_TIME);
     }
 
@@ -103,22 +188,14 @@ public class MailGenerator {
      * This class initializes all mail and sets their corresponding values,
      */
     public void generateAllMail(){
+        complete = (MAIL_TO_CREATE == 0);
+        if(parallel){
+        	generateAllMailParallel();
+        	return;
+        }
         while(!complete){
             MailItem newMail =  generateMail();
-            int timeToDeliver = newMail.getArrivalTime();
-            /** Check if key exists for this time **/
-            if(allMail.containsKey(timeToDeliver)){
-                /** Add to existing array */
-                allMail.get(timeToDeliver).add(newMail);
-            }
-            else{
-                /** If the key doesn't exist then set a new key along with the array of MailItems to add during
-                 * that time step.
-                 */
-                ArrayList<MailItem> newMailList = new ArrayList<MailItem>();
-                newMailList.add(newMail);
-                allMail.put(timeToDeliver,newMailList);
-            }
+            addMail(newMail);
             /** Mark the mail as created */
             mailCreated++;
 
@@ -129,6 +206,57 @@ public class MailGenerator {
         }
 
     }
+
+    /**
+     * Draw every mail item from its own stream on all cores, then create the items in order. The merge pass keeps the
+     * rule of at most one priority item per arrival time, the first item (by index) to ask for priority gets it.
+     */
+    private void generateAllMailParallel(){
+        final int n = MAIL_TO_CREATE;
+        final int[] dest_floor = new int[n];
+        final int[] priority_level = new int[n];
+        final int[] arrival_time = new int[n];
+        final int[] weight = new int[n];
+        final boolean[] wantsPriority = new boolean[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            Random stream = new StreamRandom(streamSeed, ITEM_STREAMS, i);
+            dest_floor[i] = generateDestinationFloor(stream);
+            priority_level[i] = generatePriorityLevel(stream);
+            arrival_time[i] = (arrivalSchedule != null) ? arrivalSchedule[i] : generateArrivalTime(stream);
+            weight[i] = generateWeight(stream, arrival_time[i]);
+            wantsPriority[i] = stream.nextInt(6) == 0; // Skew towards non priority mail
+        });
+        Set<Integer> priorityTimes = new HashSet<Integer>();
+        for(int i = 0; i < n; i++){
+            if(wantsPriority[i] && priorityTimes.add(arrival_time[i])){
+                addMail(new PriorityMailItem(dest_floor[i],arrival_time[i],weight[i],priority_level[i]));
+            } else {
+                addMail(new MailItem(dest_floor[i],arrival_time[i],weight[i]));
+            }
+        }
+        mailCreated = n;
+        complete = true;
+    }
+
+    /**
+     * Add a created mail item to the items arriving at its time
+     */
+    private void addMail(MailItem newMail){
+        int timeToDeliver = newMail.getArrivalTime();
+        /** Check if key exists for this time **/
+        if(allMail.containsKey(timeToDeliver)){
+            /** Add to existing array */
+            allMail.get(timeToDeliver).add(newMail);
+        }
+        else{
+            /** If the key doesn't exist then set a new key along with the array of MailItems to add during
+             * that time step.
+             */
+            ArrayList<MailItem> newMailList = new ArrayList<MailItem>();
+            newMailList.add(newMail);
+            allMail.put(timeToDeliver,newMailList);
+        }
+    }
     
     /**
      * While there are steps left, create a new mail item to deliver
@@ -136,15 +264,73 @@ public class MailGenerator {
      */
     public PriorityMailItem step(){
     	PriorityMailItem priority = null;
+    	if(arrivalKeys == null) indexArrivals();
+    	int now = Clock.Time();
     	// Check if there are any mail to create
-        if(this.allMail.containsKey(Clock.Time())){
-            for(MailItem mailItem : allMail.get(Clock.Time())){
+        Integer key = (now < arrivalKeys.length) ? arrivalKeys[now] : null;
+        if(key != null){
+            ArrayList<MailItem> arrivals = allMail.get(key);
+            for(int i = 0; i < arrivals.size(); i++){
+            	MailItem mailItem = arrivals.get(i);
             	if (mailItem instanceof PriorityMailItem) priority = ((PriorityMailItem) mailItem);
-                System.out.printf("T: %3d > new addToPool [%s]%n", Clock.Time(), mailItem.toString());
-                mailPool.addToPool(mailItem);
+            	arrive(mailItem);
             }
+            // the pool owns the mail from now on
+            allMail.remove(key);
+            arrivalKeys[now] = null;
         }
         return priority;
     }
+
+    /**
+     * Hand a mail item that has just arrived to the pool
+     */
+    void arrive(MailItem mailItem){
+        if(!Simulation.isQuiet()) System.out.printf("T: %3d > new addToPool [%s]%n", Clock.Time(), mailItem.toString());
+        Fingerprint.arrival(mailItem);
+        RunArchive.arrival(mailItem);
+        mailPool.addToPool(mailItem);
+    }
+
+    /**
+     * @return true if there is mail still to arrive
+     */
+    boolean hasMailToArrive(){
+        return !allMail.isEmpty();
+    }
+
+    /**
+     * @return true if the generator holds all the mail still to arrive, so getAllMail lists it for a checkpoint or
+     *         the offline solver
+     */
+    boolean canCheckpoint(){
+        return true;
+    }
+
+    /**
+     * Index the keys of the mail still to arrive by tick, once all of it has been created
+     */
+    private void indexArrivals(){
+    	int last = 0;
+    	for(int time : allMail.keySet()) last = Math.max(last, time);
+    	arrivalKeys = new Integer[last + 1];
+    	for(Integer time : allMail.keySet()) arrivalKeys[time] = time;
+    }
+
+    /**
+     * @return the mail items that will arrive at the given time
+     */
+    @Override
+    public List<MailItem> arrivalsAt(int time){
+        List<MailItem> arrivals = allMail.get(time);
+        return arrivals == null ? Collections.<MailItem>emptyList() : arrivals;
+    }
+
+    /**
+     * @return the mail items still to arrive, by arrival time
+     */
+    Map<Integer,ArrayList<MailItem>> getAllMail(){
+        return allMail;
+    }
     
 }
@@ -18,6 +18,8 @@ public class MailItem {
     protected final int arrival_time;
     /** The weight in grams of the mail item */
     protected final int weight;
+    /** Set once the mail item is delivered, so a second delivery is caught without searching every delivery */
+    boolean delivered = false;
 
     /**
      * Constructor for a MailItem
@@ -32,6 +34,20 @@ public class MailItem {
         this.weight = weight;
     }
 
+    /**
+     * Constructor for a MailItem restored with its original identifier
+     * @param id the identifier of this mail item
+     * @param dest_floor the destination floor intended for this mail item
+     * @param arrival_time the time that the mail arrived
+     * @param weight the weight of this mail item
+     */
+    public MailItem(String id, int dest_floor, int arrival_time, int weight){
+        this.destination_floor = dest_floor;
+        this.id = id;
+        this.arrival_time = arrival_time;
+        this.weight = weight;
+    }
+
     @Override
     public String toString(){
         return String.format("Mail Item:: ID: %6s | Arrival: %4d | Destination: %2d | Weight: %4d", id, arrival_time, destination_floor, weight);
@@ -72,6 +88,12 @@ public class MailItem {
 	static private int count = 0;
 	static private Map<Integer, Integer> hashMap = new TreeMap<Integer, Integer>();
 
+	/** Restart the identifiers, so a new run in the same JVM numbers its mail from 0 again */
+	static void resetIds() {
+		count = 0;
+		hashMap.clear();
+	}
+
 	@Override
 	public int hashCode() {
 		Integer hash0 = super.hashCode();
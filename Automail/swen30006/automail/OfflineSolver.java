@@ -0,0 +1,294 @@
+package automail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The Class OfflineSolver.
+ *
+ * @author Group W13-5
+ * @Description: OfflineSolver uses the whole workload, which is known up front, to measure how close a strategy is to
+ *               optimal. It computes a lower bound on the final delivery time and score that no strategy can beat, and
+ *               a good schedule found by local search over the order robots take items in. The search runs one
+ *               independent annealing chain per core and keeps the best.
+ */
+public class OfflineSolver
+{
+    /** The workload, one entry per mail item. */
+    private final int[] arrival;
+
+    private final int[] destination;
+
+    private final int[] groupSize;
+
+    private final double[] scoreWeight;
+
+    private final int robots;
+
+    /** The best schedule found by solve. */
+    private int[] bestOrder;
+
+    private double bestScore;
+
+    private int bestTime;
+
+    /**
+     * Instantiates an OfflineSolver.
+     *
+     * @param workload every mail item that will arrive
+     * @param robots the number of robots
+     */
+    public OfflineSolver(List<MailItem> workload, int robots)
+    {
+        int n = workload.size();
+        this.robots = robots;
+        arrival = new int[n];
+        destination = new int[n];
+        groupSize = new int[n];
+        scoreWeight = new double[n];
+        for (int i = 0; i < n; i++) {
+            MailItem m = workload.get(i);
+            arrival[i] = m.getArrivalTime();
+            destination[i] = m.getDestFloor();
+            if (m.getWeight() <= Robot.INDIVIDUAL_MAX_WEIGHT) {
+                groupSize[i] = 1;
+            } else if (m.getWeight() <= Robot.PAIR_MAX_WEIGHT) {
+                groupSize[i] = 2;
+            } else {
+                groupSize[i] = 3;
+            }
+            int priority = (m instanceof PriorityMailItem) ? ((PriorityMailItem) m).getPriorityLevel() : 0;
+            scoreWeight[i] = 1 + Math.sqrt(priority);
+        }
+    }
+
+    /**
+     * The earliest tick an item can be delivered: a robot loaded on the tick it arrives leaves the mailroom on the next
+     * tick, at group speed if the item needs more than one robot.
+     */
+    private int earliestDelivery(int i)
+    {
+        int ticksPerFloor = (groupSize[i] == 1) ? 1 : Math.round(1 / Robot.GROUP_SPEED);
+        return arrival[i] + 1 + (destination[i] - Building.MAILROOM_LOCATION) * ticksPerFloor;
+    }
+
+    private static double deliveryScore(int ticks, double weight)
+    {
+        return Math.pow(ticks, 1.2) * weight;
+    }
+
+    /**
+     * A lower bound on the final delivery time. Every item takes at least its own earliest delivery, and the robot
+     * time needed by items arriving at or after any tick t must be shared by all robots after t. A light item needs
+     * at least half a round trip (two share a trip), a group item needs each robot for the trip up at group speed,
+     * and a robot's last trip saves at most one return from the top floor.
+     *
+     * @return the earliest possible final delivery time
+     */
+    public int lowerBoundTime()
+    {
+        int n = arrival.length;
+        int bound = 0;
+        int lastArrival = 0;
+        for (int i = 0; i < n; i++) {
+            bound = Math.max(bound, earliestDelivery(i));
+            lastArrival = Math.max(lastArrival, arrival[i]);
+        }
+        long[] work = new long[lastArrival + 2];
+        for (int i = 0; i < n; i++) {
+            int floors = destination[i] - Building.MAILROOM_LOCATION;
+            int trip = earliestDelivery(i) - arrival[i] - 1;
+            work[arrival[i]] += (groupSize[i] == 1) ? floors : (long) groupSize[i] * trip;
+        }
+        long remaining = 0;
+        for (int t = lastArrival; t >= 0; t--) {
+            remaining += work[t];
+            long shared = (remaining + robots - 1) / robots - (Building.FLOORS - Building.MAILROOM_LOCATION);
+            bound = (int) Math.max(bound, t + shared);
+        }
+        return bound;
+    }
+
+    /**
+     * A lower bound on the score, every item delivered at its earliest delivery.
+     *
+     * @return the lowest possible total score
+     */
+    public double lowerBoundScore()
+    {
+        double score = 0;
+        for (int i = 0; i < arrival.length; i++) {
+            score += deliveryScore(earliestDelivery(i) - arrival[i], scoreWeight[i]);
+        }
+        return score;
+    }
+
+    /**
+     * Search for a good schedule.
+     *
+     * @param iterations the number of moves tried by each chain
+     * @param seed the seed of the first chain, the others use the following seeds
+     * @throws InterruptedException if interrupted while waiting for the chains
+     */
+    public void solve(final int iterations, long seed) throws InterruptedException
+    {
+        int chains = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(chains);
+        List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+        for (int c = 0; c < chains; c++) {
+            final Random random = new Random(seed + c);
+            results.add(executor.submit(() -> anneal(iterations, random)));
+        }
+        executor.shutdown();
+        bestOrder = null;
+        try {
+            for (Future<int[]> result : results) {
+                int[] order = result.get();
+                double[] cost = evaluate(order);
+                if (bestOrder == null || cost[0] < bestScore) {
+                    bestOrder = order;
+                    bestScore = cost[0];
+                    bestTime = (int) cost[1];
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public double getBestScore()
+    {
+        return bestScore;
+    }
+
+    public int getBestTime()
+    {
+        return bestTime;
+    }
+
+    /**
+     * One simulated annealing chain over the order items are taken in, starting from the MailPool order.
+     */
+    private int[] anneal(int iterations, Random random)
+    {
+        int n = arrival.length;
+        Integer[] start = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            start[i] = i;
+        }
+        Arrays.sort(start, (a, b) -> (scoreWeight[a] != scoreWeight[b]) ? Double.compare(scoreWeight[b],
+            scoreWeight[a]) : (destination[a] != destination[b]) ? destination[b] - destination[a] : arrival[a]
+                - arrival[b]);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = start[i];
+        }
+        if (n < 2) {
+            return order;
+        }
+        int[] best = order.clone();
+        double current = evaluate(order)[0];
+        double bestCost = current;
+        double temperature = current * 0.01;
+        for (int k = 0; k < iterations; k++) {
+            int a = random.nextInt(n);
+            int b = random.nextInt(n);
+            swap(order, a, b);
+            double cost = evaluate(order)[0];
+            if (cost <= current || random.nextDouble() < Math.exp((current - cost) / temperature)) {
+                current = cost;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = order.clone();
+                }
+            } else {
+                swap(order, a, b);
+            }
+            temperature *= 0.9995;
+        }
+        return best;
+    }
+
+    private static void swap(int[] order, int a, int b)
+    {
+        int t = order[a];
+        order[a] = order[b];
+        order[b] = t;
+    }
+
+    /**
+     * Run the robots against an item order: the earliest free robot takes the first item in the order that has arrived,
+     * and the next light item in the order goes in its tube. Group items wait for enough robots and carry no tube.
+     *
+     * @return the score and the final delivery time
+     */
+    private double[] evaluate(int[] order)
+    {
+        int n = order.length;
+        int[] free = new int[robots];
+        boolean[] taken = new boolean[n];
+        int remaining = n;
+        for (int i = 0; i < n; i++) {
+            // too heavy for the whole fleet, never delivered
+            if (groupSize[i] > robots) {
+                taken[i] = true;
+                remaining--;
+            }
+        }
+        double score = 0;
+        int finalTime = 0;
+        while (remaining > 0) {
+            Arrays.sort(free);
+            int now = free[0];
+            int hand = -1;
+            int earliest = Integer.MAX_VALUE;
+            for (int k = 0; k < n && hand < 0; k++) {
+                int i = order[k];
+                if (!taken[i]) {
+                    if (arrival[i] <= now) {
+                        hand = i;
+                    }
+                    earliest = Math.min(earliest, arrival[i]);
+                }
+            }
+            if (hand < 0) {
+                free[0] = Math.max(now + 1, earliest);
+                continue;
+            }
+            taken[hand] = true;
+            remaining--;
+            int size = groupSize[hand];
+            int start = Math.max(now, free[size - 1]);
+            int delivered = start + (earliestDelivery(hand) - arrival[hand]);
+            score += deliveryScore(delivered - arrival[hand], scoreWeight[hand]);
+            int last = delivered;
+            int lastFloor = destination[hand];
+            if (size == 1) {
+                for (int k = 0; k < n; k++) {
+                    int i = order[k];
+                    if (!taken[i] && arrival[i] <= start && groupSize[i] == 1) {
+                        taken[i] = true;
+                        remaining--;
+                        last = delivered + Math.abs(destination[i] - lastFloor) + 1;
+                        lastFloor = destination[i];
+                        score += deliveryScore(last - arrival[i], scoreWeight[i]);
+                        break;
+                    }
+                }
+            }
+            finalTime = Math.max(finalTime, last);
+            // back at the mailroom, and loaded on the tick after it registers
+            for (int r = 0; r < size; r++) {
+                free[r] = last + (lastFloor - Building.MAILROOM_LOCATION) + 2;
+            }
+        }
+        return new double[] { score, finalTime };
+    }
+
+}
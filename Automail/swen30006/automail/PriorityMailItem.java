@@ -9,6 +9,11 @@ public class PriorityMailItem extends MailItem{
 		super(dest_floor, arrival_time, weight);
         this.PRIORITY_LEVEL = priority_level;
 	}
+
+	public PriorityMailItem(String id, int dest_floor, int arrival_time, int weight, int priority_level) {
+		super(id, dest_floor, arrival_time, weight);
+        this.PRIORITY_LEVEL = priority_level;
+	}
 	
     /**
     *
@@ -0,0 +1,231 @@
+package automail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The Class ResultStore.
+ *
+ * @author Group W13-5
+ * @Description: ResultStore keeps the results of finished scenarios, so a runner asked for a scenario it has run before
+ *               answers from the store instead of simulating it again. A scenario is keyed by a hash of its effective
+ *               properties, sorted and leaving out those that only change the output or the tools, its seed and the
+ *               identity of the simulation code, a hash of every class of the automail, strategies and exceptions
+ *               packages. Rebuilding with a changed strategy therefore starts a new set of keys.
+ *
+ *               The store is an append-only text file, one "key result" line per scenario, read into a map when opened
+ *               and read on from where it was left when a key is not found, so workers sharing the file see each
+ *               other's results. Lines are appended under a file lock. Unseeded runs, runs replaying or resuming from
+ *               a file, and runs writing files or watched over JMX are never looked up or stored, nor are results cut
+ *               short by the wall clock or an error.
+ */
+public class ResultStore
+{
+    /** Properties that do not change a run's result. */
+    private static final String[] IGNORED = { "Quiet", "Zone_Threads", "Max_Wall_Seconds", "Offline_Bound",
+        "Offline_Iterations", "Checkpoint_File", "Fingerprint_File", "Delivery_Sink_File", "Run_Archive_File",
+        "Run_Archive_Interval", "Results_Store" };
+
+    /** The properties of the tools that run scenarios. */
+    private static final String[] IGNORED_PREFIXES = { "Tune_", "Plan_", "Ramp_", "Alloc_" };
+
+    /** The results that can be reused, every other status depends on more than the scenario. */
+    private static final String[] REUSABLE = { "complete", "failed", "stalled", "tick_budget" };
+
+    private final Path path;
+
+    private final String codeIdentity;
+
+    /** The result of each key read so far, and how far the file has been read. */
+    private final HashMap<String, String> results = new HashMap<String, String>();
+
+    private long readTo = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    /**
+     * Open a store, reading the results already in it.
+     *
+     * @param file the store, created when the first result is added
+     * @throws IOException if the store or the simulation classes cannot be read
+     */
+    public ResultStore(String file) throws IOException
+    {
+        path = Paths.get(file);
+        codeIdentity = CodeIdentity.get();
+        readOn();
+    }
+
+    /**
+     * Work out the key of a scenario.
+     *
+     * @param properties the effective properties of the scenario
+     * @param seedArg the seed given for the scenario, overriding the Seed property, may be null
+     * @return the key, or null if the scenario's result cannot be stored
+     */
+    public String keyOf(Properties properties, String seedArg)
+    {
+        String seed = (seedArg != null) ? seedArg : properties.getProperty("Seed");
+        if (seed == null || properties.getProperty("Arrival_Trace") != null
+            || properties.getProperty("Resume_File") != null || properties.getProperty("Checkpoint_Tick") != null
+            || Integer.parseInt(properties.getProperty("Fingerprint_Interval", "0")) > 0
+            || !properties.getProperty("Delivery_Sink", "none").equals("none")
+            || Boolean.parseBoolean(properties.getProperty("Run_Archive"))
+            || Boolean.parseBoolean(properties.getProperty("Jmx_Monitor"))) {
+            return null;
+        }
+        StringBuilder canonical = new StringBuilder();
+        canonical.append("code=").append(codeIdentity).append('\n').append("seed=").append(seed.trim()).append('\n');
+        List<String> names = new ArrayList<String>(properties.stringPropertyNames());
+        Collections.sort(names);
+        for (String name : names) {
+            if (!name.equals("Seed") && !isIgnored(name)) {
+                canonical.append(name).append('=').append(properties.getProperty(name).trim()).append('\n');
+            }
+        }
+        byte[] hash = CodeIdentity.sha256().digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+        return CodeIdentity.hex(hash, 16);
+    }
+
+    private static boolean isIgnored(String name)
+    {
+        for (String ignored : IGNORED) {
+            if (name.equals(ignored)) {
+                return true;
+            }
+        }
+        for (String prefix : IGNORED_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param status the status of a run
+     * @return true if a run with the status can be stored
+     */
+    public static boolean isReusable(String status)
+    {
+        for (String reusable : REUSABLE) {
+            if (reusable.equals(status)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param key the key of a scenario
+     * @return the stored result, or null if the scenario has not been run
+     * @throws IOException if the store cannot be read
+     */
+    public String lookup(String key) throws IOException
+    {
+        String result = results.get(key);
+        if (result == null) {
+            // another runner sharing the store may have run it since
+            readOn();
+            result = results.get(key);
+        }
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    /**
+     * Add the result of a scenario to the store.
+     *
+     * @param key the key of the scenario
+     * @param result the result, Key=Value tokens on one line
+     * @throws IOException if the store cannot be written
+     */
+    public void add(String key, String result) throws IOException
+    {
+        results.put(key, result);
+        ByteBuffer line = ByteBuffer.wrap((key + " " + result + "\n").getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND)) {
+            FileLock lock = channel.lock();
+            try {
+                while (line.hasRemaining()) {
+                    channel.write(line);
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Read the whole lines added to the store since it was last read.
+     */
+    private void readOn() throws IOException
+    {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= readTo) {
+                return;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) (size - readTo));
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, readTo + bytes.position()) < 0) {
+                    break;
+                }
+            }
+            // a line still being written is left for the next read
+            int end = bytes.position();
+            while (end > 0 && bytes.get(end - 1) != '\n') {
+                end--;
+            }
+            String text = new String(bytes.array(), 0, end, StandardCharsets.UTF_8);
+            for (String line : text.split("\n")) {
+                int split = line.indexOf(' ');
+                if (split > 0) {
+                    results.put(line.substring(0, split), line.substring(split + 1));
+                }
+            }
+            readTo += end;
+        }
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * @return the number of scenarios in the store
+     */
+    public int size()
+    {
+        return results.size();
+    }
+
+}
@@ -1,5 +1,8 @@
 package automail;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -64,6 +67,9 @@ public class Robot
     /** The Flag to determine if robot is in a group. */
     private boolean belongToGroup = false;
 
+    /** The floor the robot returns to for more mail, the zone's mailroom when the floors are zoned. */
+    private int mailroom = Building.MAILROOM_LOCATION;
+
     /**
      * Initiates the robot's location at the start to be at the mailroom also set it to be waiting for mail.
      * 
@@ -83,6 +89,22 @@ public class Robot
         this.deliveryCounter = 0;
     }
 
+    /**
+     * Initiates a robot restored from a checkpoint, its state is then loaded by readState.
+     * 
+     * @param delivery governs the final delivery
+     * @param mailPool is the source of mail items
+     * @param id the id the robot had when the checkpoint was saved
+     */
+    Robot(IMailDelivery delivery, IMailPool mailPool, String id)
+    {
+        // keep the id sequence in step so robots added to a forked run get new ids
+        hashCode();
+        this.id = id;
+        this.delivery = delivery;
+        this.mailPool = mailPool;
+    }
+
     /**
      * The robot dispatch the item.
      */
@@ -102,19 +124,22 @@ public class Robot
             /** This state is triggered when the robot is returning to the mailroom after a delivery */
             case RETURNING:
                 /** If its current position is at the mailroom, then the robot should change state */
-                if (current_floor <= Building.MAILROOM_LOCATION) {
+                if (current_floor <= mailroom && current_floor > mailroom - SINGLE_SPEED) {
                     if (tube != null) {
+                        RunArchive.returned(this, tube);
                         mailPool.addToPool(tube);
-                        System.out.printf("T: %3d > old addToPool [%s]%n", Clock.Time(), tube.toString());
+                        if (!Simulation.isQuiet()) {
+                            System.out.printf("T: %3d > old addToPool [%s]%n", Clock.Time(), tube.toString());
+                        }
                         tube = null;
                     }
                     /** Tell the sorter the robot is ready */
                     mailPool.registerWaiting(this);
                     changeState(RobotState.WAITING);
-                    current_floor = Building.MAILROOM_LOCATION;
+                    current_floor = mailroom;
                 } else {
                     /** If the robot is not at the mailroom floor yet, then move towards it! */
-                    moveTowards(Building.MAILROOM_LOCATION, SINGLE_SPEED);
+                    moveTowards(mailroom, SINGLE_SPEED);
                     break;
                 }
             case WAITING:
@@ -134,13 +159,16 @@ public class Robot
 
                     // ensures that only 1 mail item is delivered whether or not the robot is in a group or individually
                     if (isDelivering || (deliveryItem.getWeight() < INDIVIDUAL_MAX_WEIGHT)) {
-                        delivery.deliver(deliveryItem);
+                        SimulationEvents.delivery(this, deliveryItem);
+                        delivery.deliver(deliveryItem, this);
                         isDelivering = false;
                     }
 
+                    MailItem delivered = deliveryItem;
                     deliveryItem = null;
                     deliveryCounter++;
                     if (deliveryCounter > 2) { // Implies a simulation bug
+                        SimulationEvents.failure("ExcessiveDeliveryException", this, delivered);
                         throw new ExcessiveDeliveryException();
                     }
                     /** Check if want to return, i.e. if there is no item in the tube */
@@ -149,6 +177,8 @@ public class Robot
                         removeFromGroup();
                     } else {
                         /** If there is another item, set the robot's route to the location to deliver the item */
+                        // a group arrives part way through a floor, so start the next trip from the floor itself
+                        current_floor = destination_floor;
                         deliveryItem = tube;
                         tube = null;
                         removeFromGroup();
@@ -205,13 +235,26 @@ public class Robot
     private void changeState(RobotState nextState)
     {
         assert (!(deliveryItem == null && tube != null));
+        // the trace is only formatted when it is printed
+        boolean trace = !Simulation.isQuiet();
         if (current_state != nextState) {
-            System.out.printf("T: %3d > %7s changed from %s to %s%n", Clock.Time(), getIdTube(), current_state,
-                nextState);
+            if (trace) {
+                System.out.printf("T: %3d > %7s changed from %s to %s%n", Clock.Time(), getIdTube(), current_state,
+                    nextState);
+            }
+            Fingerprint.state(this, nextState);
+            RunArchive.state(this, current_state, nextState);
+            if (nextState == RobotState.DELIVERING) {
+                // leaving the mailroom, not moving on to the tube item
+                RunArchive.dispatch(this, deliveryItem, tube);
+            }
         }
         current_state = nextState;
         if (nextState == RobotState.DELIVERING) {
-            System.out.printf("T: %3d > %7s-> [%s]%n", Clock.Time(), getIdTube(), deliveryItem.toString());
+            if (trace) {
+                System.out.printf("T: %3d > %7s-> [%s]%n", Clock.Time(), getIdTube(), deliveryItem.toString());
+            }
+            Fingerprint.load(this, deliveryItem, tube);
         }
     }
 
@@ -220,10 +263,27 @@ public class Robot
         return tube;
     }
 
+    /**
+     * @return the item in the robot's hand, or null
+     */
+    public MailItem getDeliveryItem()
+    {
+        return deliveryItem;
+    }
+
     static private int count = 0;
 
     static private Map<Integer, Integer> hashMap = new TreeMap<Integer, Integer>();
 
+    /**
+     * Restart the ids, so a new run in the same JVM numbers its robots from 0 again.
+     */
+    static void resetIds()
+    {
+        count = 0;
+        hashMap.clear();
+    }
+
     @Override
     public int hashCode()
     {
@@ -254,8 +314,10 @@ public class Robot
     {
         assert (deliveryItem == null);
         deliveryItem = mailItem;
-        if (deliveryItem.weight > TRIPLE_MAX_WEIGHT)
+        if (deliveryItem.weight > TRIPLE_MAX_WEIGHT) {
+            SimulationEvents.failure("ItemTooHeavyException", this, mailItem);
             throw new ItemTooHeavyException();
+        }
     }
 
     /**
@@ -268,8 +330,10 @@ public class Robot
     {
         assert (tube == null);
         tube = mailItem;
-        if (tube.weight > INDIVIDUAL_MAX_WEIGHT)
+        if (tube.weight > INDIVIDUAL_MAX_WEIGHT) {
+            SimulationEvents.failure("ItemTooHeavyException", this, mailItem);
             throw new ItemTooHeavyException();
+        }
     }
 
     public void setIsDelivering()
@@ -277,11 +341,43 @@ public class Robot
         isDelivering = true;
     }
 
+    public boolean isInGroup()
+    {
+        return belongToGroup;
+    }
+
     public String getID()
     {
         return id;
     }
 
+    /**
+     * @return the state, position and load of the robot, for diagnostics
+     */
+    public String describe()
+    {
+        return String.format("%s %s at floor %.2f, destination %d%s, hand [%s], tube [%s]", id, current_state,
+            current_floor, destination_floor, belongToGroup ? ", in a group" : "", deliveryItem, tube);
+    }
+
+    public int getMailroom()
+    {
+        return mailroom;
+    }
+
+    /**
+     * Send an idle robot to another mailroom, where it waits for mail once it arrives. A robot that has not reached
+     * its mailroom yet just heads for the new one.
+     * 
+     * @param floor the floor of the new mailroom
+     */
+    public void sendTo(int floor)
+    {
+        assert (isEmpty());
+        mailroom = floor;
+        changeState(RobotState.RETURNING);
+    }
+
     public int getDestination()
     {
         return destination_floor;
@@ -301,6 +397,48 @@ public class Robot
         isDelivering = false;
     }
 
+    /**
+     * Save the state of the robot into a checkpoint.
+     * 
+     * @param checkpoint the checkpoint being saved
+     */
+    void writeState(Checkpoint checkpoint) throws IOException
+    {
+        DataOutputStream out = checkpoint.getOutput();
+        out.writeByte(current_state.ordinal());
+        out.writeFloat(current_floor);
+        out.writeInt(destination_floor);
+        out.writeFloat(speed);
+        out.writeBoolean(receivedDispatch);
+        checkpoint.writeMail(deliveryItem);
+        checkpoint.writeMail(tube);
+        out.writeInt(deliveryCounter);
+        out.writeBoolean(isDelivering);
+        out.writeBoolean(belongToGroup);
+        out.writeInt(mailroom);
+    }
+
+    /**
+     * Load the state of the robot from a checkpoint.
+     * 
+     * @param checkpoint the checkpoint being loaded
+     */
+    void readState(Checkpoint checkpoint) throws IOException
+    {
+        DataInputStream in = checkpoint.getInput();
+        current_state = RobotState.values()[in.readByte()];
+        current_floor = in.readFloat();
+        destination_floor = in.readInt();
+        speed = in.readFloat();
+        receivedDispatch = in.readBoolean();
+        deliveryItem = checkpoint.readMail();
+        tube = checkpoint.readMail();
+        deliveryCounter = in.readInt();
+        isDelivering = in.readBoolean();
+        belongToGroup = in.readBoolean();
+        mailroom = in.readInt();
+    }
+
     /**
      * Add robot to the group.
      */
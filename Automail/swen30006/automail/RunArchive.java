@@ -0,0 +1,321 @@
+package automail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The Class RunArchive.
+ *
+ * @author Group W13-5
+ * @Description: RunArchive writes the events of a run to a file as it goes: arrivals, robot state changes, dispatches,
+ *               tube items given back to the pool and deliveries. Alongside the events it keeps a sparse tick index and
+ *               the offsets of each mail item's and each robot's events, written at the end of the file when the run
+ *               stops, so ArchiveQuery can answer what happened at a tick, to an item or to a robot by mapping the file
+ *               and reading only the records asked about.
+ *
+ *               The file starts with the int magic "AMRA", the int version, the long number of records, the long
+ *               offset of the index (0 while the run is going), the int last tick and the int ticks between tick index
+ *               entries. Each record is RECORD_BYTES: the int tick, the short type, the short code, the int robot
+ *               number, the int mail id, the ints a and b, and the record numbers of the robot's and the item's
+ *               previous events, -1 for none. The index is the int number of tick index entries n then n ints, entry k
+ *               being the first record at tick k * interval or later; the int number of robots r then r robot numbers,
+ *               r last records of each robot and n * r last records of each robot before each tick index entry; and
+ *               the int number of mail ids m then m last records of each id. All values are big endian.
+ */
+public class RunArchive
+{
+    public static final int MAGIC = 0x414D5241;
+
+    public static final int VERSION = 1;
+
+    public static final int HEADER_BYTES = 32;
+
+    public static final int RECORD_BYTES = 32;
+
+    /** The arrival of an item: the code is its priority (0 for normal mail), a its floor and b its weight. */
+    public static final int ARRIVAL = 1;
+
+    /** A robot changing state: the code is the new state, a the bits of its float floor and b the old state. */
+    public static final int STATE = 2;
+
+    /** A robot leaving the mailroom with an item: the code is 0 for the hand and 1 for the tube, a the item's floor. */
+    public static final int DISPATCH = 3;
+
+    /** A robot back at the mailroom giving its tube item back to the pool. */
+    public static final int RETURN = 4;
+
+    /** A delivery: the code is 1 if the robot was in a group, a the floor and b the ticks since arrival. */
+    public static final int DELIVERY = 5;
+
+    private static FileChannel channel = null;
+
+    private static ByteBuffer buffer;
+
+    private static int interval;
+
+    private static int records;
+
+    /** The first record of each tick index entry. */
+    private static int[] tickIndex;
+
+    private static int tickEntries;
+
+    /** The robots by slot, the slot of each robot number, and each slot's last record. */
+    private static int[] robotNumbers;
+
+    private static int[] robotSlots;
+
+    private static int[] robotHeads;
+
+    /** The last record of each robot before each tick index entry, a row of slots per entry. */
+    private static int[] robotMarks;
+
+    /** The last record of each mail id. */
+    private static int[] mailHeads;
+
+    private RunArchive()
+    {
+    }
+
+    /**
+     * Start archiving a run.
+     *
+     * @param file the archive to write
+     * @param tickInterval the ticks between tick index entries
+     * @param robots every robot of the run
+     * @throws IOException if the file cannot be created
+     */
+    static void open(String file, int tickInterval, Robot[] robots) throws IOException
+    {
+        if (tickInterval < 1) {
+            throw new IllegalArgumentException("Run_Archive_Interval must be at least 1");
+        }
+        interval = tickInterval;
+        records = 0;
+        tickIndex = new int[64];
+        tickEntries = 0;
+        robotNumbers = new int[robots.length];
+        int highest = 0;
+        for (int s = 0; s < robots.length; s++) {
+            robotNumbers[s] = number(robots[s]);
+            highest = Math.max(highest, robotNumbers[s]);
+        }
+        robotSlots = new int[highest + 1];
+        Arrays.fill(robotSlots, -1);
+        for (int s = 0; s < robots.length; s++) {
+            robotSlots[robotNumbers[s]] = s;
+        }
+        robotHeads = new int[robots.length];
+        Arrays.fill(robotHeads, -1);
+        robotMarks = new int[64 * robots.length];
+        mailHeads = new int[1024];
+        Arrays.fill(mailHeads, -1);
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(1 << 16);
+        // the header is written again with the counts when the run stops
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(0).putLong(0).putInt(0).putInt(interval);
+    }
+
+    /**
+     * @return true if a run is being archived
+     */
+    static boolean isOpen()
+    {
+        return channel != null;
+    }
+
+    private static int number(Robot robot)
+    {
+        return Integer.parseInt(robot.getID().substring(1));
+    }
+
+    static void arrival(MailItem mailItem)
+    {
+        if (channel != null) {
+            int priority = (mailItem instanceof PriorityMailItem) ? ((PriorityMailItem) mailItem).getPriorityLevel()
+                : 0;
+            replay(ARRIVAL, null, mailItem, priority, mailItem.getDestFloor(), mailItem.getWeight());
+        }
+    }
+
+    static void state(Robot robot, Robot.RobotState from, Robot.RobotState to)
+    {
+        if (channel != null) {
+            record(STATE, robot, null, to.ordinal(), Float.floatToIntBits(robot.getCurrentFloor()), from.ordinal());
+        }
+    }
+
+    static void dispatch(Robot robot, MailItem hand, MailItem tube)
+    {
+        if (channel != null) {
+            record(DISPATCH, robot, hand, 0, hand.getDestFloor(), 0);
+            if (tube != null) {
+                record(DISPATCH, robot, tube, 1, tube.getDestFloor(), 0);
+            }
+        }
+    }
+
+    static void returned(Robot robot, MailItem tube)
+    {
+        if (channel != null) {
+            record(RETURN, robot, tube, 0, tube.getDestFloor(), 0);
+        }
+    }
+
+    static void delivery(MailItem mailItem, Robot robot, boolean inGroup)
+    {
+        if (channel != null) {
+            replay(DELIVERY, robot, mailItem, inGroup ? 1 : 0, mailItem.getDestFloor(),
+                Clock.Time() - mailItem.getArrivalTime());
+        }
+    }
+
+    /**
+     * Archive an event of a robot, which is logged instead if a zone's thread made it.
+     */
+    private static void record(int type, Robot robot, MailItem mailItem, int code, int a, int b)
+    {
+        if (!ZoneStepper.deferArchive(type, robot, mailItem, code, a, b)) {
+            replay(type, robot, mailItem, code, a, b);
+        }
+    }
+
+    /**
+     * Write an event at the current tick.
+     */
+    static void replay(int type, Robot robot, MailItem mailItem, int code, int a, int b)
+    {
+        if (records == Integer.MAX_VALUE) {
+            throw new IllegalStateException("The run archive is full");
+        }
+        int tick = Clock.Time();
+        indexTo(tick);
+        int slot = -1;
+        int robotNumber = -1;
+        if (robot != null) {
+            robotNumber = number(robot);
+            slot = (robotNumber < robotSlots.length) ? robotSlots[robotNumber] : -1;
+            if (slot < 0) {
+                throw new IllegalStateException(robot.getID() + " was not in the run when its archive was opened");
+            }
+        }
+        int mail = -1;
+        if (mailItem != null) {
+            mail = Integer.parseInt(mailItem.getId());
+            if (mail >= mailHeads.length) {
+                int length = mailHeads.length;
+                mailHeads = Arrays.copyOf(mailHeads, Math.max(2 * length, mail + 1));
+                Arrays.fill(mailHeads, length, mailHeads.length, -1);
+            }
+        }
+        put(RECORD_BYTES);
+        buffer.putInt(tick).putShort((short) type).putShort((short) code).putInt(robotNumber).putInt(mail).putInt(a)
+            .putInt(b).putInt((slot < 0) ? -1 : robotHeads[slot]).putInt((mail < 0) ? -1 : mailHeads[mail]);
+        if (slot >= 0) {
+            robotHeads[slot] = records;
+        }
+        if (mail >= 0) {
+            mailHeads[mail] = records;
+        }
+        records++;
+    }
+
+    /**
+     * Add the tick index entries up to a tick, each pointing at the next record.
+     */
+    private static void indexTo(int tick)
+    {
+        int robots = robotHeads.length;
+        while ((long) tickEntries * interval <= tick) {
+            if (tickEntries == tickIndex.length) {
+                tickIndex = Arrays.copyOf(tickIndex, 2 * tickEntries);
+                robotMarks = Arrays.copyOf(robotMarks, 2 * tickEntries * robots);
+            }
+            tickIndex[tickEntries] = records;
+            System.arraycopy(robotHeads, 0, robotMarks, tickEntries * robots, robots);
+            tickEntries++;
+        }
+    }
+
+    /**
+     * Write the index and the header and close the archive.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    static void close() throws IOException
+    {
+        if (channel == null) {
+            return;
+        }
+        try {
+            int lastTick = Clock.Time();
+            indexTo(lastTick);
+            flush();
+            long indexOffset = channel.position();
+            putInt(tickEntries);
+            putInts(tickIndex, tickEntries);
+            putInt(robotHeads.length);
+            putInts(robotNumbers, robotNumbers.length);
+            putInts(robotHeads, robotHeads.length);
+            putInts(robotMarks, tickEntries * robotHeads.length);
+            putInt(mailHeads.length);
+            putInts(mailHeads, mailHeads.length);
+            flush();
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(records).putLong(indexOffset).putInt(lastTick)
+                .putInt(interval);
+            buffer.flip();
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        } finally {
+            channel.close();
+            channel = null;
+            buffer = null;
+            mailHeads = null;
+            robotMarks = null;
+        }
+    }
+
+    private static void putInt(int value) throws IOException
+    {
+        put(4);
+        buffer.putInt(value);
+    }
+
+    private static void putInts(int[] values, int count) throws IOException
+    {
+        for (int k = 0; k < count; k++) {
+            putInt(values[k]);
+        }
+    }
+
+    /** Make room for a value. */
+    private static void put(int bytes)
+    {
+        if (buffer.remaining() < bytes) {
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+}
@@ -2,7 +2,9 @@ package automail;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Properties;
 
@@ -10,8 +12,10 @@ import exceptions.ExcessiveDeliveryException;
 import exceptions.ItemTooHeavyException;
 import exceptions.MailAlreadyDeliveredException;
 import strategies.Automail;
+import strategies.AdaptiveMailPool;
 import strategies.IMailPool;
 import strategies.MailPool;
+import strategies.ZonedMailPool;
 
 /**
  * This class simulates the behaviour of AutoMail
@@ -28,8 +32,54 @@ public class Simulation
 
     private static double total_score = 0;
 
-    public static void main(String[] args)
-        throws IOException, InstantiationException, IllegalAccessException, ClassNotFoundException
+    /** The delivery latency (delivery time - arrival time) of each mail item delivered in this run */
+    private static int[] latencies = new int[256];
+
+    private static int latencyCount = 0;
+
+    /** Every mail item of the run, kept for the offline bound (null for a resumed run) */
+    private static ArrayList<MailItem> WORKLOAD;
+
+    /** Records each delivery of the run, null if not recording */
+    private static DeliverySink sink = null;
+
+    /** Why the last run did not complete: failed, stalled, tick_budget or wall_budget, null if it did */
+    private static String failure = null;
+
+    /** Stop the run at the start of this tick even if mail is left, -1 runs until all mail is delivered */
+    static int stopTick = -1;
+
+    /** True to leave out the trace of each tick, so the tick loop allocates nothing once it is warmed up */
+    private static boolean quiet = false;
+
+    /** Estimates the delivery tick of pooled and carried mail in the running simulation. */
+    private static DeliveryEstimator estimator = null;
+
+    /** The measures of a run whose mail keeps arriving, null for a run that delivers a fixed workload. */
+    private static SteadyState steady = null;
+
+    public static void main(String[] args) throws IOException, InstantiationException, IllegalAccessException,
+        ClassNotFoundException, InterruptedException
+    {
+        Properties automailProperties = loadProperties();
+        if (simulate(automailProperties, args.length == 0 ? null : args[0])) {
+            printResults();
+            if (Boolean.parseBoolean(automailProperties.getProperty("Offline_Bound"))) {
+                printOfflineBound(Integer.parseInt(automailProperties.getProperty("Robots")),
+                    Integer.parseInt(automailProperties.getProperty("Offline_Iterations")));
+            }
+        } else {
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Read automail.properties on top of the default properties.
+     *
+     * @return the properties for a run
+     * @throws IOException if automail.properties cannot be read
+     */
+    public static Properties loadProperties() throws IOException
     {
         Properties automailProperties = new Properties();
         // Default properties
@@ -40,6 +90,47 @@ public class Simulation
         automailProperties.setProperty("Fragile", "false");
         automailProperties.setProperty("Mail_to_Create", "80");
         automailProperties.setProperty("Last_Delivery_Time", "100");
+        automailProperties.setProperty("Checkpoint_File", "automail.ckpt");
+        automailProperties.setProperty("Pool_Hot_Capacity", "0");
+        automailProperties.setProperty("Dispatch_Hold_Ticks", "0");
+        automailProperties.setProperty("Offline_Bound", "false");
+        automailProperties.setProperty("Parallel_Generation", "false");
+        automailProperties.setProperty("Offline_Iterations", "20000");
+        automailProperties.setProperty("Jmx_Monitor", "false");
+        automailProperties.setProperty("Delivery_Sink", "none");
+        automailProperties.setProperty("Fingerprint_Interval", "0");
+        automailProperties.setProperty("Zones", "0");
+        automailProperties.setProperty("Zone_Mailrooms", "false");
+        automailProperties.setProperty("Zone_Rebalance_Interval", "0");
+        automailProperties.setProperty("Fingerprint_File", "automail.fingerprint");
+        automailProperties.setProperty("Stall_Ticks", "1000");
+        automailProperties.setProperty("Max_Ticks", "0");
+        automailProperties.setProperty("Max_Wall_Seconds", "0");
+        automailProperties.setProperty("Adaptive_Strategy", "false");
+        automailProperties.setProperty("Adaptive_High_Water", "3");
+        automailProperties.setProperty("Adaptive_Low_Water", "1");
+        automailProperties.setProperty("Adaptive_Age_Limit", "50");
+        automailProperties.setProperty("Adaptive_Min_Dwell", "10");
+        automailProperties.setProperty("Quiet", "false");
+        automailProperties.setProperty("Priority_Lane_Max", "0");
+        automailProperties.setProperty("Priority_Lane_Window", "200");
+        automailProperties.setProperty("Group_Tube_Reach", "-1");
+        automailProperties.setProperty("Preplan_Loads", "false");
+        automailProperties.setProperty("Tube_Fill_Weight", String.valueOf(Robot.INDIVIDUAL_MAX_WEIGHT));
+        automailProperties.setProperty("Pool_Tie_Break", "high");
+        automailProperties.setProperty("Group_Yield", "any");
+        automailProperties.setProperty("Run_Archive", "false");
+        automailProperties.setProperty("Run_Archive_File", "automail.archive");
+        automailProperties.setProperty("Run_Archive_Interval", "256");
+        automailProperties.setProperty("Steady_State", "false");
+        automailProperties.setProperty("Steady_Warmup_Ticks", "1000");
+        automailProperties.setProperty("Steady_Batch_Ticks", "500");
+        automailProperties.setProperty("Steady_Min_Batches", "10");
+        automailProperties.setProperty("Steady_Max_Batches", "64");
+        automailProperties.setProperty("Steady_Confidence", "0.95");
+        automailProperties.setProperty("Steady_Precision", "0.05");
+        automailProperties.setProperty("Steady_Max_Ticks", "1000000");
+        automailProperties.setProperty("Results_Store", "none");
 
         // Read properties
         FileReader inStream = null;
@@ -51,6 +142,57 @@ public class Simulation
                 inStream.close();
             }
         }
+        return automailProperties;
+    }
+
+    /**
+     * Run one simulation from the start (or from a checkpoint), the static state of any earlier run is reset first.
+     *
+     * @param automailProperties the properties for the run
+     * @param seedArg the seed given on the command line, overrides the Seed property, may be null
+     * @return false if the simulation was unable to complete
+     * @throws IOException if a checkpoint cannot be saved or loaded
+     */
+    public static boolean simulate(Properties automailProperties, String seedArg) throws IOException
+    {
+        return simulate(automailProperties, seedArg, null);
+    }
+
+    /**
+     * Told when each tick of the loop starts and once when the loop stops, so the loop can be measured from outside.
+     */
+    interface LoopObserver
+    {
+        /**
+         * @param tick the tick about to run
+         */
+        void tickStarted(int tick);
+
+        /**
+         * Called before anything reports why the loop stopped.
+         *
+         * @param tick the tick the loop stopped at
+         */
+        void loopStopped(int tick);
+    }
+
+    /**
+     * Run one simulation, telling an observer about the tick loop.
+     *
+     * @param observer told about each tick of the loop, or null
+     * @see #simulate(Properties, String)
+     */
+    static boolean simulate(Properties automailProperties, String seedArg, LoopObserver observer) throws IOException
+    {
+        Clock.setTime(0);
+        total_score = 0;
+        latencyCount = 0;
+        failure = null;
+        quiet = Boolean.parseBoolean(automailProperties.getProperty("Quiet"));
+        int fingerprintInterval = Integer.parseInt(automailProperties.getProperty("Fingerprint_Interval"));
+        Fingerprint.reset(fingerprintInterval);
+        MailItem.resetIds();
+        Robot.resetIds();
 
         // Seed
         String seedProp = automailProperties.getProperty("Seed");
@@ -75,7 +217,66 @@ public class Simulation
         System.out.println(robots);
         assert (robots > 0);
         // MailPool
-        IMailPool mailPool = new MailPool(robots);
+        int hotCapacity = Integer.parseInt(automailProperties.getProperty("Pool_Hot_Capacity"));
+        // Zones: each zone of floors has its own pool, otherwise one pool serves the building
+        int zones = Integer.parseInt(automailProperties.getProperty("Zones"));
+        ArrayList<MailPool> pools = new ArrayList<MailPool>();
+        IMailPool mailPool;
+        ZonedMailPool zoned = null;
+        if (zones > 1) {
+            MailPool[] zonePools = new MailPool[zones];
+            for (int z = 0; z < zones; z++) {
+                // the robots are shared between the zones in turn, so the first zones may have one more
+                int zoneRobots = robots / zones + ((z < robots % zones) ? 1 : 0);
+                pools.add(createPool(automailProperties, Math.max(zoneRobots, 1), hotCapacity));
+                zonePools[z] = pools.get(z);
+            }
+            zoned = new ZonedMailPool(zonePools, Boolean.parseBoolean(automailProperties.getProperty("Zone_Mailrooms")),
+                Integer.parseInt(automailProperties.getProperty("Zone_Rebalance_Interval")));
+            mailPool = zoned;
+        } else {
+            pools.add(createPool(automailProperties, robots, hotCapacity));
+            mailPool = pools.get(0);
+        }
+        int holdTicks = Integer.parseInt(automailProperties.getProperty("Dispatch_Hold_Ticks"));
+        // Tunables of the loading strategy
+        String tieBreak = automailProperties.getProperty("Pool_Tie_Break");
+        if (!tieBreak.equals("high") && !tieBreak.equals("low")) {
+            throw new IllegalArgumentException("Pool_Tie_Break must be high or low: " + tieBreak);
+        }
+        for (MailPool pool : pools) {
+            pool.setTunables(Integer.parseInt(automailProperties.getProperty("Tube_Fill_Weight")),
+                tieBreak.equals("low"), MailPool.GroupYield.valueOf(automailProperties.getProperty("Group_Yield")
+                    .toUpperCase()));
+        }
+        // Priority lane: set before a resume, so the restored priority arrivals are kept
+        int laneMax = Integer.parseInt(automailProperties.getProperty("Priority_Lane_Max"));
+        if (laneMax > 0) {
+            if (zoned != null) {
+                throw new IllegalArgumentException("Priority_Lane_Max cannot be used with Zones");
+            }
+            pools.get(0).setPriorityLane(laneMax, Integer.parseInt(automailProperties.getProperty(
+                "Priority_Lane_Window")), robots);
+        }
+        // Checkpoint: save at the start of Checkpoint_Tick, or resume from Resume_File
+        String checkpointProp = automailProperties.getProperty("Checkpoint_Tick");
+        int checkpointTick = checkpointProp == null ? -1 : Integer.parseInt(checkpointProp);
+        String checkpointFile = automailProperties.getProperty("Checkpoint_File");
+        String resumeFile = automailProperties.getProperty("Resume_File");
+        // Arrival_Trace: replay recorded arrivals instead of generating mail
+        String traceFile = automailProperties.getProperty("Arrival_Trace");
+        if (traceFile != null && (checkpointTick >= 0 || resumeFile != null)) {
+            throw new IllegalArgumentException("A run replaying Arrival_Trace cannot be checkpointed or resumed");
+        }
+        // Steady_State: mail keeps arriving, and the run is measured once settled instead of delivering a workload
+        steady = null;
+        if (Boolean.parseBoolean(automailProperties.getProperty("Steady_State"))) {
+            if (traceFile != null || checkpointTick >= 0 || resumeFile != null) {
+                throw new IllegalArgumentException(
+                    "A Steady_State run cannot replay Arrival_Trace or be checkpointed or resumed");
+            }
+            steady = new SteadyState(automailProperties);
+        }
 
         // End properties
 
@@ -85,38 +286,278 @@ public class Simulation
         HashMap<Boolean, Integer> seedMap = new HashMap<>();
 
         /** Read the first argument and save it as a seed if it exists */
-        if (args.length == 0) { // No arg
+        if (seedArg == null) { // No arg
             if (seedProp == null) { // and no property
                 seedMap.put(false, 0); // so randomise
             } else { // Use property seed
                 seedMap.put(true, Integer.parseInt(seedProp));
             }
         } else { // Use arg seed - overrides property
-            seedMap.put(true, Integer.parseInt(args[0]));
+            seedMap.put(true, Integer.parseInt(seedArg));
         }
         Integer seed = seedMap.get(true);
         System.out.printf("Seed: %s%n", seed == null ? "null" : seed.toString());
-        Automail automail = new Automail(mailPool, new ReportDelivery(), robots);
-        MailGenerator mailGenerator = new MailGenerator(MAIL_TO_CREATE, MAIL_MAX_WEIGHT, automail.mailPool, seedMap);
+        Automail automail;
+        MailGenerator mailGenerator;
+        if (steady != null) {
+            automail = new Automail(mailPool, new ReportDelivery(), robots);
+            mailGenerator = new SteadyGenerator(MAIL_MAX_WEIGHT, automail.mailPool, seedMap,
+                WorkloadProfile.continuousFromProperties(automailProperties));
+        } else if (traceFile != null) {
+            automail = new Automail(mailPool, new ReportDelivery(), robots);
+            mailGenerator = TraceReplay.open(traceFile, MAIL_MAX_WEIGHT, automail.mailPool);
+        } else if (resumeFile == null) {
+            automail = new Automail(mailPool, new ReportDelivery(), robots);
+            mailGenerator = new MailGenerator(MAIL_TO_CREATE, MAIL_MAX_WEIGHT, automail.mailPool, seedMap,
+                WorkloadProfile.fromProperties(automailProperties),
+                Boolean.parseBoolean(automailProperties.getProperty("Parallel_Generation")));
+
+            /** Initiate all the mail */
+            mailGenerator.generateAllMail();
+            MAIL_DELIVERED.ensureCapacity(mailGenerator.MAIL_TO_CREATE);
+        } else {
+            /** Continue from the saved tick, any extra robots start at the mailroom */
+            Checkpoint checkpoint = Checkpoint.load(resumeFile, mailPool, new ReportDelivery(), robots);
+            automail = checkpoint.getAutomail();
+            mailGenerator = checkpoint.getMailGenerator();
+            MAIL_DELIVERED = checkpoint.getDelivered();
+            total_score = checkpoint.getTotalScore();
+            int[] restored = checkpoint.getLatencies();
+            latencies = Arrays.copyOf(restored, Math.max(restored.length, 256));
+            latencyCount = restored.length;
+            seed = checkpoint.getSeed();
+            robots = automail.robots.length;
+            System.out.printf("Resumed: %s at T: %3d (Floors: %d, Robots: %d, Seed: %s)%n", resumeFile, Clock.Time(),
+                Building.FLOORS, robots, seed == null ? "null" : seed.toString());
+        }
+        // the offline solver needs the whole workload, which a resumed run or a generator not holding its mail lacks
+        WORKLOAD = null;
+        if (resumeFile == null && mailGenerator.canCheckpoint()) {
+            WORKLOAD = new ArrayList<MailItem>();
+            for (ArrayList<MailItem> arrivals : mailGenerator.getAllMail().values()) {
+                WORKLOAD.addAll(arrivals);
+            }
+        }
+        if (holdTicks > 0) {
+            for (MailPool pool : pools) {
+                pool.setDispatchHold(mailGenerator, holdTicks);
+            }
+        }
+        int groupTubeReach = Integer.parseInt(automailProperties.getProperty("Group_Tube_Reach"));
+        if (groupTubeReach >= 0) {
+            for (MailPool pool : pools) {
+                pool.setGroupTubeReach(groupTubeReach);
+            }
+        }
+        if (Boolean.parseBoolean(automailProperties.getProperty("Preplan_Loads"))) {
+            for (int z = 0; z < pools.size(); z++) {
+                pools.get(z).setLoadPlanning((zoned == null) ? Arrays.asList(automail.robots) : zoned.getRobots(z));
+            }
+        }
+        ZoneStepper stepper = null;
+        if (zoned != null) {
+            zoned.assignRobots(automail.robots, MAIL_MAX_WEIGHT);
+            stepper = new ZoneStepper(zoned, Integer.parseInt(automailProperties.getProperty("Zone_Threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        }
+        estimator = new DeliveryEstimator(mailPool, automail.robots);
+        Watchdog watchdog = new Watchdog(Integer.parseInt(automailProperties.getProperty("Stall_Ticks")),
+            Integer.parseInt(automailProperties.getProperty("Max_Ticks")),
+            Long.parseLong(automailProperties.getProperty("Max_Wall_Seconds")));
+        SimulationMonitor monitor = null;
+        if (Boolean.parseBoolean(automailProperties.getProperty("Jmx_Monitor"))) {
+            monitor = SimulationMonitor.get();
+            monitor.start(mailGenerator.MAIL_TO_CREATE);
+        }
+        String sinkFormat = automailProperties.getProperty("Delivery_Sink");
+        if (!sinkFormat.equals("none")) {
+            sink = new DeliverySink(sinkFormat, automailProperties.getProperty("Delivery_Sink_File",
+                sinkFormat.equals("csv") ? "deliveries.csv" : "deliveries.bin"));
+        }
+        if (Boolean.parseBoolean(automailProperties.getProperty("Run_Archive"))) {
+            RunArchive.open(automailProperties.getProperty("Run_Archive_File"),
+                Integer.parseInt(automailProperties.getProperty("Run_Archive_Interval")), automail.robots);
+        }
+        LoopObserver observing = observer;
+        try {
+            // PriorityMailItem priority; // Not used in this version
+            while (MAIL_DELIVERED.size() != mailGenerator.MAIL_TO_CREATE && Clock.Time() != stopTick
+                && (steady == null || !steady.isDone())) {
+                // System.out.printf("Delivered: %4d; Created: %4d%n", MAIL_DELIVERED.size(), mailGenerator.MAIL_TO_CREATE);
+                failure = watchdog.check(getDeliveredCount(), isIdle(mailPool, automail.robots, mailGenerator));
+                if (failure != null) {
+                    // the report allocates, so it is left out of the observed loop
+                    observing = stopObserving(observing);
+                    watchdog.dump(System.err, failure, getDeliveredCount(), mailPool, automail.robots);
+                    System.out.println("Simulation unable to complete.");
+                    return false;
+                }
+                if (Clock.Time() == checkpointTick) {
+                    Checkpoint.save(checkpointFile, seed, automail, mailGenerator, MAIL_DELIVERED, total_score,
+                        latencies, latencyCount);
+                    System.out.printf("T: %3d > Checkpoint saved [%s]%n", Clock.Time(), checkpointFile);
+                }
+                if (observing != null) {
+                    observing.tickStarted(Clock.Time());
+                }
+                Object phase = SimulationEvents.beginPhase("MailGenerator.step", null);
+                mailGenerator.step();
+                SimulationEvents.end(phase);
+                try {
+                    if (stepper != null) {
+                        phase = SimulationEvents.beginPhase("ZoneStepper.step", null);
+                        stepper.step();
+                        SimulationEvents.end(phase);
+                    } else {
+                        phase = SimulationEvents.beginPhase("MailPool.step", null);
+                        automail.mailPool.step();
+                        SimulationEvents.end(phase);
+                        for (int i = 0; i < robots; i++) {
+                            phase = SimulationEvents.beginPhase("Robot.step", automail.robots[i]);
+                            automail.robots[i].step();
+                            SimulationEvents.end(phase);
+                        }
+                    }
+                } catch (ExcessiveDeliveryException | ItemTooHeavyException e) {
+                    failure = "failed";
+                    observing = stopObserving(observing);
+                    e.printStackTrace();
+                    System.out.println("Simulation unable to complete.");
+                    return false;
+                }
+                if (steady != null) {
+                    steady.endTick(((SteadyGenerator) mailGenerator).getArrived(), mailPool.getPoolSize());
+                }
+                Fingerprint.endTick();
+                Clock.Tick();
+                if (monitor != null) {
+                    monitor.publish(mailPool.getPoolSize(), getDeliveredCount(), total_score, automail.robots);
+                    monitor.publishEstimates(estimator);
+                }
+            }
+            return true;
+        } finally {
+            stopObserving(observing);
+            if (stepper != null) {
+                stepper.close();
+            }
+            if (sink != null) {
+                sink.close();
+                sink = null;
+            }
+            for (MailPool pool : pools) {
+                pool.close();
+            }
+            RunArchive.close();
+            if (monitor != null) {
+                monitor.finish();
+            }
+            if (mailGenerator instanceof TraceReplay) {
+                ((TraceReplay) mailGenerator).close();
+            }
+            if (fingerprintInterval > 0) {
+                Fingerprint.write(automailProperties.getProperty("Fingerprint_File"));
+            }
+        }
+    }
+
+    /**
+     * Tell the observer, if there still is one, that the loop stopped.
+     *
+     * @return null, as the observer is only told once
+     */
+    private static LoopObserver stopObserving(LoopObserver observer)
+    {
+        if (observer != null) {
+            observer.loopStopped(Clock.Time());
+        }
+        return null;
+    }
+
+    /**
+     * Create the pool for the building, or for one zone of it.
+     */
+    private static MailPool createPool(Properties automailProperties, int robots, int hotCapacity) throws IOException
+    {
+        if (Boolean.parseBoolean(automailProperties.getProperty("Adaptive_Strategy"))) {
+            if (hotCapacity > 0) {
+                throw new IllegalArgumentException("Adaptive_Strategy cannot be used with Pool_Hot_Capacity");
+            }
+            return new AdaptiveMailPool(robots, Integer.parseInt(automailProperties.getProperty("Adaptive_High_Water")),
+                Integer.parseInt(automailProperties.getProperty("Adaptive_Low_Water")),
+                Integer.parseInt(automailProperties.getProperty("Adaptive_Age_Limit")),
+                Integer.parseInt(automailProperties.getProperty("Adaptive_Min_Dwell")));
+        }
+        return new MailPool(robots, hotCapacity);
+    }
+
+    /**
+     * @return true if the pool is empty and every robot is waiting for more mail still to arrive
+     */
+    private static boolean isIdle(IMailPool mailPool, Robot[] robots, MailGenerator mailGenerator)
+    {
+        if (mailPool.getPoolSize() > 0 || !mailGenerator.hasMailToArrive()) {
+            return false;
+        }
+        for (Robot r : robots) {
+            if (r.current_state != Robot.RobotState.WAITING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the trace of each tick is left out
+     */
+    public static boolean isQuiet()
+    {
+        return quiet;
+    }
+
+    /**
+     * Estimate when a mail item will be delivered, from the state of the running simulation between ticks.
+     *
+     * @param id the id of a mail item
+     * @return the estimated delivery tick, or -1 if the item has not arrived, is spilled or has been delivered
+     */
+    public static int estimateDelivery(String id)
+    {
+        return (estimator == null) ? -1 : estimator.estimate(id);
+    }
 
-        /** Initiate all the mail */
-        mailGenerator.generateAllMail();
-        // PriorityMailItem priority; // Not used in this version
-        while (MAIL_DELIVERED.size() != mailGenerator.MAIL_TO_CREATE) {
-            // System.out.printf("Delivered: %4d; Created: %4d%n", MAIL_DELIVERED.size(), mailGenerator.MAIL_TO_CREATE);
-            mailGenerator.step();
-            try {
-                automail.mailPool.step();
-                for (int i = 0; i < robots; i++)
-                    automail.robots[i].step();
-            } catch (ExcessiveDeliveryException | ItemTooHeavyException e) {
-                e.printStackTrace();
-                System.out.println("Simulation unable to complete.");
-                System.exit(0);
+    /**
+     * @return why the last run did not complete: failed, stalled, tick_budget or wall_budget, null if it did
+     */
+    public static String getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * Release what a run stopped by an error part way through may have left open, so the next run in this JVM starts
+     * clean. The error that stopped the run is the one reported, so errors closing its files are not.
+     */
+    static void reset()
+    {
+        Clock.setTime(0);
+        failure = null;
+        steady = null;
+        estimator = null;
+        try {
+            if (sink != null) {
+                sink.close();
             }
-            Clock.Tick();
+        } catch (IOException | RuntimeException e) {
+            // the run already failed
+        } finally {
+            sink = null;
+        }
+        try {
+            RunArchive.close();
+        } catch (IOException | RuntimeException e) {
+            // the run already failed
         }
-        printResults();
     }
 
     static class ReportDelivery implements IMailDelivery
@@ -126,12 +567,48 @@ public class Simulation
         @Override
         public void deliver(MailItem deliveryItem)
         {
-            if (!MAIL_DELIVERED.contains(deliveryItem)) {
-                MAIL_DELIVERED.add(deliveryItem);
-                System.out.printf("T: %3d > Delivered(%4d) [%s]%n", Clock.Time(), MAIL_DELIVERED.size(),
-                    deliveryItem.toString());
+            deliver(deliveryItem, null);
+        }
+
+        /** Confirm the delivery, calculate the total score and record the delivery */
+        @Override
+        public void deliver(MailItem deliveryItem, Robot robot)
+        {
+            if (ZoneStepper.deferDelivery(this, deliveryItem, robot)) {
+                // made in zone order once all the zones have stepped
+                return;
+            }
+            if (!deliveryItem.delivered) {
+                deliveryItem.delivered = true;
                 // Calculate delivery score
-                total_score += calculateDeliveryScore(deliveryItem);
+                double score = calculateDeliveryScore(deliveryItem);
+                if (steady == null) {
+                    MAIL_DELIVERED.add(deliveryItem);
+                } else {
+                    // retired rather than kept, the run has no end
+                    steady.delivered(deliveryItem, score);
+                }
+                if (!quiet) {
+                    System.out.printf("T: %3d > Delivered(%4d) [%s]%n", Clock.Time(), getDeliveredCount(),
+                        deliveryItem.toString());
+                }
+                Fingerprint.delivery(deliveryItem);
+                RunArchive.delivery(deliveryItem, robot, robot != null && robot.isInGroup());
+                total_score += score;
+                if (sink != null) {
+                    try {
+                        sink.record(deliveryItem, robot, robot != null && robot.isInGroup(), score);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                if (steady != null) {
+                    return;
+                }
+                if (latencyCount == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, latencyCount * 2);
+                }
+                latencies[latencyCount++] = Clock.Time() - deliveryItem.getArrivalTime();
             } else {
                 try {
                     throw new MailAlreadyDeliveredException();
@@ -155,10 +632,89 @@ public class Simulation
         return Math.pow(Clock.Time() - deliveryItem.getArrivalTime(), penalty) * (1 + Math.sqrt(priority_weight));
     }
 
+    /**
+     * @return the number of mail items delivered in the last run
+     */
+    public static int getDeliveredCount()
+    {
+        return (steady == null) ? MAIL_DELIVERED.size() : steady.getDelivered();
+    }
+
+    /**
+     * @return every mail item of the last run, null if it was resumed
+     */
+    static ArrayList<MailItem> getWorkload()
+    {
+        return WORKLOAD;
+    }
+
+    /**
+     * @return the mail items delivered in the last run, in delivery order
+     */
+    static ArrayList<MailItem> getDelivered()
+    {
+        return MAIL_DELIVERED;
+    }
+
+    /**
+     * @param percentile the percentile wanted, from 0 to 100
+     * @return the delivery latency at that percentile for the mail delivered in the last run, 0 if none
+     */
+    public static int getLatencyPercentile(double percentile)
+    {
+        if (latencyCount == 0) {
+            return 0;
+        }
+        int[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * latencyCount) - 1;
+        return sorted[Math.max(0, Math.min(rank, latencyCount - 1))];
+    }
+
+    /**
+     * @return the total score of the last run
+     */
+    public static double getTotalScore()
+    {
+        return total_score;
+    }
+
     public static void printResults()
     {
+        if (steady != null) {
+            steady.printResults();
+            return;
+        }
         System.out.println("T: " + Clock.Time() + " | Simulation complete!");
         System.out.println("Final Delivery time: " + Clock.Time());
         System.out.printf("Final Score: %.2f%n", total_score);
     }
+
+    /**
+     * Print an offline lower bound and a searched schedule for the same workload, and how much a better strategy
+     * could still gain over the simulated result.
+     *
+     * @param robots the number of robots
+     * @param iterations the moves tried by each search chain
+     * @throws InterruptedException if interrupted during the search
+     */
+    public static void printOfflineBound(int robots, int iterations) throws InterruptedException
+    {
+        if (WORKLOAD == null) {
+            System.out.println("Offline bound: not available for a resumed, replayed or steady-state run");
+            return;
+        }
+        OfflineSolver solver = new OfflineSolver(WORKLOAD, robots);
+        int boundTime = solver.lowerBoundTime();
+        double boundScore = solver.lowerBoundScore();
+        solver.solve(iterations, 0);
+        System.out.printf("Offline lower bound: Final Delivery time: %d | Final Score: %.2f%n", boundTime, boundScore);
+        System.out.printf("Offline schedule: Final Delivery time: %d | Final Score: %.2f%n", solver.getBestTime(),
+            solver.getBestScore());
+        System.out.printf("Headroom to bound: Final Delivery time: %.1f%% | Final Score: %.1f%%%n",
+            100.0 * (Clock.Time() - boundTime) / Clock.Time(), 100.0 * (total_score - boundScore) / total_score);
+        System.out.printf("Headroom to schedule: Final Delivery time: %.1f%% | Final Score: %.1f%%%n",
+            100.0 * (Clock.Time() - solver.getBestTime()) / Clock.Time(),
+            100.0 * (total_score - solver.getBestScore()) / total_score);
+    }
 }
@@ -0,0 +1,137 @@
+package automail;
+
+/**
+ * The Class SimulationEvents.
+ *
+ * @author Group W13-5
+ * @Description: SimulationEvents are the Java Flight Recorder events of the simulation, so a recording lines up CPU
+ *               and allocation samples with the tick phases, robot loading, groups, deliveries and failures. Every
+ *               event carries the tick and the robot and mail IDs it is about. The events are recorded by
+ *               FlightEvents, loaded by reflection only if the JDK has jdk.jfr, so the simulation still builds and runs
+ *               on JDK 8; without it every helper does nothing.
+ *
+ *               Usage: java -XX:StartFlightRecording=filename=automail.jfr automail.Simulation, then look under the
+ *               Automail category in JDK Mission Control or run jfr print --categories Automail automail.jfr.
+ */
+public final class SimulationEvents
+{
+    /** Records the events, the helpers below with the event checked for null. */
+    interface Recorder
+    {
+        Object beginPhase(String phase, Robot robot);
+
+        Object beginLoad(Robot robot);
+
+        void endLoad(Object event, MailItem hand, MailItem tube);
+
+        void end(Object event);
+
+        void group(String action, GroupRobot group, MailItem mailItem);
+
+        void delivery(Robot robot, MailItem mailItem);
+
+        void failure(String exception, Robot robot, MailItem mailItem);
+    }
+
+    /** The recorder, null if the JDK has no Flight Recorder. */
+    private static final Recorder RECORDER = loadRecorder();
+
+    private SimulationEvents()
+    {
+    }
+
+    private static Recorder loadRecorder()
+    {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Recorder) Class.forName("automail.FlightEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Start timing a tick phase.
+     *
+     * @param phase the phase, e.g. MailPool.step
+     * @param robot the robot being stepped, or null
+     * @return the event to pass to end, or null if tick phases are not recorded
+     */
+    public static Object beginPhase(String phase, Robot robot)
+    {
+        return (RECORDER == null) ? null : RECORDER.beginPhase(phase, robot);
+    }
+
+    /**
+     * Start timing the loading of a robot.
+     *
+     * @param robot the robot being loaded
+     * @return the event to pass to endLoad, or null if loading is not recorded
+     */
+    public static Object beginLoad(Robot robot)
+    {
+        return (RECORDER == null) ? null : RECORDER.beginLoad(robot);
+    }
+
+    /**
+     * Finish loading a robot.
+     *
+     * @param event the event from beginLoad, or null
+     * @param hand the item in the robot's hand, or null
+     * @param tube the item in the robot's tube, or null
+     */
+    public static void endLoad(Object event, MailItem hand, MailItem tube)
+    {
+        if (event != null) {
+            RECORDER.endLoad(event, hand, tube);
+        }
+    }
+
+    /**
+     * Finish a timed event.
+     *
+     * @param event the event from beginPhase, or null
+     */
+    public static void end(Object event)
+    {
+        if (event != null) {
+            RECORDER.end(event);
+        }
+    }
+
+    /**
+     * @param action form, join, dispatch or dissolve
+     * @param group the group
+     * @param mailItem the heavy item the group is for
+     */
+    public static void group(String action, GroupRobot group, MailItem mailItem)
+    {
+        if (RECORDER != null) {
+            RECORDER.group(action, group, mailItem);
+        }
+    }
+
+    /**
+     * @param robot the robot delivering
+     * @param mailItem the item delivered
+     */
+    public static void delivery(Robot robot, MailItem mailItem)
+    {
+        if (RECORDER != null) {
+            RECORDER.delivery(robot, mailItem);
+        }
+    }
+
+    /**
+     * @param exception the simple name of the exception
+     * @param robot the robot involved, or null
+     * @param mailItem the item involved, or null
+     */
+    public static void failure(String exception, Robot robot, MailItem mailItem)
+    {
+        if (RECORDER != null) {
+            RECORDER.failure(exception, robot, mailItem);
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package automail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * The Class SimulationFarm.
+ *
+ * @author Group W13-5
+ * @Description: SimulationFarm runs scenarios in parallel on a set of BatchServer worker JVMs. The simulation keeps
+ *               its state in static fields, so each worker runs one scenario at a time and the farm runs one worker
+ *               per core. Workers stay up between calls so they keep their warmed-up code. A worker that does not
+ *               answer within the timeout (e.g. a run that never completes) is killed and replaced, and the scenario
+ *               is reported with status=timeout.
+ */
+public class SimulationFarm
+{
+    /** Receives each result as it comes in. */
+    public interface ResultListener
+    {
+        /**
+         * @param scenario the scenario line
+         * @param result the result keys and values, e.g. status, final_time, score, p95_latency
+         * @return false to stop running the scenarios not yet started
+         */
+        boolean accept(String scenario, Map<String, String> result);
+    }
+
+    private class Worker
+    {
+        Process process;
+
+        PrintWriter in;
+
+        BufferedReader out;
+
+        void start() throws IOException
+        {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                BatchServer.class.getName());
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = builder.start();
+            in = new PrintWriter(process.getOutputStream(), true);
+            out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        }
+
+        Map<String, String> request(String scenario) throws IOException
+        {
+            if (process == null) {
+                start();
+            }
+            final Process running = process;
+            TimerTask kill = new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    running.destroy();
+                }
+            };
+            timer.schedule(kill, timeoutMillis);
+            in.println(scenario);
+            String line = out.readLine();
+            kill.cancel();
+            Map<String, String> result = new HashMap<String, String>();
+            if (line == null) {
+                // killed, or died: replace it for the next scenario
+                process.destroy();
+                process = null;
+                result.put("status", "timeout");
+                return result;
+            }
+            for (String token : line.split("\\s+")) {
+                int split = token.indexOf('=');
+                if (split > 0) {
+                    result.put(token.substring(0, split), token.substring(split + 1));
+                }
+            }
+            return result;
+        }
+
+        void stop()
+        {
+            if (process != null) {
+                in.close();
+                process.destroy();
+            }
+        }
+    }
+
+    private final Worker[] workers;
+
+    private final long timeoutMillis;
+
+    private final Timer timer = new Timer(true);
+
+    /**
+     * Instantiates a SimulationFarm, workers are started when first used.
+     *
+     * @param size the number of workers
+     * @param timeoutMillis the longest a scenario may run
+     */
+    public SimulationFarm(int size, long timeoutMillis)
+    {
+        this.timeoutMillis = timeoutMillis;
+        workers = new Worker[size];
+        for (int w = 0; w < size; w++) {
+            workers[w] = new Worker();
+        }
+    }
+
+    /**
+     * Run scenarios on all workers until they are all done or the listener stops them.
+     *
+     * @param scenarios the scenario lines, as read by BatchServer
+     * @param listener receives each result, one at a time
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public void run(List<String> scenarios, final ResultListener listener) throws InterruptedException
+    {
+        final Iterator<String> next = scenarios.iterator();
+        final boolean[] stopped = { false };
+        final IOException[] failure = { null };
+        Thread[] threads = new Thread[workers.length];
+        for (int w = 0; w < workers.length; w++) {
+            final Worker worker = workers[w];
+            threads[w] = new Thread(() -> {
+                while (true) {
+                    String scenario;
+                    synchronized (next) {
+                        if (stopped[0] || !next.hasNext()) {
+                            return;
+                        }
+                        scenario = next.next();
+                    }
+                    Map<String, String> result;
+                    try {
+                        result = worker.request(scenario);
+                    } catch (IOException e) {
+                        synchronized (next) {
+                            failure[0] = e;
+                            stopped[0] = true;
+                        }
+                        return;
+                    }
+                    synchronized (next) {
+                        if (!stopped[0] && !listener.accept(scenario, result)) {
+                            stopped[0] = true;
+                        }
+                    }
+                }
+            });
+            threads[w].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw new IllegalStateException("Unable to run a worker", failure[0]);
+        }
+    }
+
+    /**
+     * Stop all the workers.
+     */
+    public void close()
+    {
+        for (Worker worker : workers) {
+            worker.stop();
+        }
+        timer.cancel();
+    }
+
+}
@@ -0,0 +1,260 @@
+package automail;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The Class SimulationMonitor.
+ *
+ * @author Group W13-5
+ * @Description: SimulationMonitor shows a running simulation over JMX as automail:type=Simulation, so a long run or
+ *               sweep can be watched in JConsole or VisualVM on the same machine. The tick loop publishes its counters
+ *               once per tick with ordered stores and never takes a lock or waits for a reader. Readers never change
+ *               what other readers see: the tick rate is measured by the tick loop over windows of a second. The
+ *               platform MBean server is only reachable remotely if the JVM is started with
+ *               com.sun.management.jmxremote.port.
+ */
+public class SimulationMonitor implements SimulationMonitorMBean
+{
+    private static final int TIME = 0;
+
+    private static final int POOL_DEPTH = 1;
+
+    private static final int DELIVERED = 2;
+
+    private static final int MAIL_TO_CREATE = 3;
+
+    private static final int DELIVERING = 4;
+
+    private static final int WAITING = 5;
+
+    private static final int RETURNING = 6;
+
+    private static final int SCORE = 7;
+
+    private static final int NANOS = 8;
+
+    /** The bits of the ticks per second over the last whole window. */
+    private static final int RATE = 9;
+
+    /** The length of the window the tick rate is measured over. */
+    private static final long RATE_WINDOW_NANOS = 1000000000L;
+
+    private static SimulationMonitor instance = null;
+
+    /** Written only by the tick loop, read by any number of JMX threads. */
+    private final AtomicLongArray counters = new AtomicLongArray(10);
+
+    /** The tick and time the current rate window started at, used only by the tick loop. */
+    private long windowTick;
+
+    private long windowNanos;
+
+    /** The delivery estimates published by the tick loop, replaced whole so readers never see a partial map. */
+    private volatile Map<String, Integer> estimates = Collections.emptyMap();
+
+    /** The tick the estimates were published at, -1 before the first. */
+    private volatile int estimatesTick = -1;
+
+    /** Counted down when estimates are next published, or the run ends, and then replaced. */
+    private volatile CountDownLatch nextEstimates = new CountDownLatch(1);
+
+    /** Set by a reader that wants estimates published at the end of the next tick. */
+    private volatile boolean estimatesWanted = false;
+
+    /** True from the start of a run until it ends. */
+    private volatile boolean running = false;
+
+    private SimulationMonitor()
+    {
+    }
+
+    /**
+     * Get the monitor, registering it with the platform MBean server the first time.
+     *
+     * @return the monitor
+     */
+    public static synchronized SimulationMonitor get()
+    {
+        if (instance == null) {
+            instance = new SimulationMonitor();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance,
+                    new ObjectName("automail:type=Simulation"));
+            } catch (JMException e) {
+                throw new IllegalStateException("Unable to register the simulation monitor", e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Reset the counters for a new run.
+     *
+     * @param mailToCreate the number of items the run delivers
+     */
+    public void start(int mailToCreate)
+    {
+        for (int k = 0; k < counters.length(); k++) {
+            counters.lazySet(k, 0);
+        }
+        counters.lazySet(MAIL_TO_CREATE, mailToCreate);
+        counters.lazySet(NANOS, System.nanoTime());
+        windowTick = 0;
+        windowNanos = counters.get(NANOS);
+        estimates = Collections.emptyMap();
+        estimatesTick = -1;
+        nextEstimates = new CountDownLatch(1);
+        running = true;
+    }
+
+    /**
+     * Mark the run as ended, so readers are answered from the last estimates instead of waiting for more.
+     */
+    public void finish()
+    {
+        running = false;
+        nextEstimates.countDown();
+    }
+
+    /**
+     * Publish the state at the end of a tick.
+     *
+     * @param poolDepth the number of items in the pool
+     * @param delivered the number of items delivered
+     * @param score the score so far
+     * @param robots the robots
+     */
+    public void publish(int poolDepth, int delivered, double score, Robot[] robots)
+    {
+        int delivering = 0;
+        int waiting = 0;
+        for (Robot r : robots) {
+            if (r.current_state == Robot.RobotState.DELIVERING) {
+                delivering++;
+            } else if (r.current_state == Robot.RobotState.WAITING) {
+                waiting++;
+            }
+        }
+        counters.lazySet(POOL_DEPTH, poolDepth);
+        counters.lazySet(DELIVERED, delivered);
+        counters.lazySet(DELIVERING, delivering);
+        counters.lazySet(WAITING, waiting);
+        counters.lazySet(RETURNING, robots.length - delivering - waiting);
+        counters.lazySet(SCORE, Double.doubleToRawLongBits(score));
+        long nanos = System.nanoTime();
+        if (nanos - windowNanos >= RATE_WINDOW_NANOS) {
+            double rate = (Clock.Time() - windowTick) * 1e9 / (nanos - windowNanos);
+            counters.lazySet(RATE, Double.doubleToRawLongBits(rate));
+            windowTick = Clock.Time();
+            windowNanos = nanos;
+        }
+        counters.lazySet(NANOS, nanos);
+        counters.lazySet(TIME, Clock.Time());
+    }
+
+    /**
+     * Publish the delivery estimates at the end of a tick, only if a reader has asked for them since the last time so
+     * a run nobody is querying pays nothing.
+     *
+     * @param estimator the estimator of the run
+     */
+    public void publishEstimates(DeliveryEstimator estimator)
+    {
+        if (estimatesWanted) {
+            estimatesWanted = false;
+            estimates = estimator.snapshot();
+            estimatesTick = Clock.Time();
+            // wake the readers waiting for these estimates, later readers wait on the next latch
+            CountDownLatch published = nextEstimates;
+            nextEstimates = new CountDownLatch(1);
+            published.countDown();
+        }
+    }
+
+    @Override
+    public int getTime()
+    {
+        return (int) counters.get(TIME);
+    }
+
+    @Override
+    public int getPoolDepth()
+    {
+        return (int) counters.get(POOL_DEPTH);
+    }
+
+    @Override
+    public int getDelivered()
+    {
+        return (int) counters.get(DELIVERED);
+    }
+
+    @Override
+    public int getMailToCreate()
+    {
+        return (int) counters.get(MAIL_TO_CREATE);
+    }
+
+    @Override
+    public int getRobotsDelivering()
+    {
+        return (int) counters.get(DELIVERING);
+    }
+
+    @Override
+    public int getRobotsWaiting()
+    {
+        return (int) counters.get(WAITING);
+    }
+
+    @Override
+    public int getRobotsReturning()
+    {
+        return (int) counters.get(RETURNING);
+    }
+
+    @Override
+    public double getScore()
+    {
+        return Double.longBitsToDouble(counters.get(SCORE));
+    }
+
+    /**
+     * {@inheritDoc} Answers from the estimates published at the current tick if there are any, so many queries in one
+     * tick cost one snapshot. Otherwise blocks up to a second for the tick loop to publish estimates at the end of the
+     * tick, and once the run has ended answers from the last estimates without waiting.
+     */
+    @Override
+    public int getEstimatedDelivery(String id)
+    {
+        if (running && estimatesTick < getTime()) {
+            CountDownLatch published = nextEstimates;
+            estimatesWanted = true;
+            try {
+                published.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Integer tick = estimates.get(id);
+        return (tick == null) ? -1 : tick;
+    }
+
+    /**
+     * {@inheritDoc} Measured by the tick loop over the last whole second, 0 until a second has passed.
+     */
+    @Override
+    public double getTicksPerSecond()
+    {
+        return Double.longBitsToDouble(counters.get(RATE));
+    }
+
+}
@@ -0,0 +1,35 @@
+package automail;
+
+/**
+ * The Interface SimulationMonitorMBean.
+ *
+ * @author Group W13-5
+ * @Description: The attributes of a running simulation shown over JMX.
+ */
+public interface SimulationMonitorMBean
+{
+    /** The current tick. */
+    int getTime();
+
+    /** The number of items in the mail pool. */
+    int getPoolDepth();
+
+    int getDelivered();
+
+    int getMailToCreate();
+
+    int getRobotsDelivering();
+
+    int getRobotsWaiting();
+
+    int getRobotsReturning();
+
+    /** The score of the mail delivered so far. */
+    double getScore();
+
+    /** The ticks simulated per second over the last whole second of the run. */
+    double getTicksPerSecond();
+
+    /** The estimated delivery tick of a pooled or carried mail item, -1 if it is not known. */
+    int getEstimatedDelivery(String id);
+}
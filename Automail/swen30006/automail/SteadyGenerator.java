@@ -0,0 +1,149 @@
+package automail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import strategies.IMailPool;
+
+/**
+ * The Class SteadyGenerator.
+ *
+ * @author Group W13-5
+ * @Description: SteadyGenerator keeps mail arriving for as long as the run goes, instead of creating a fixed amount of
+ *               mail over the arrival window up front. The number of arrivals at each tick is drawn from the
+ *               profile's rate curve, and each item is drawn like a generated one: its floor, weight and priority,
+ *               with at most one priority item a tick. The mail of a tick is only drawn when the clock reaches it, or
+ *               when the dispatch hold looks ahead to it, so the generator holds no more than those few ticks of mail.
+ *               Items are numbered as they are drawn, so none are kept to give them identifiers.
+ */
+public class SteadyGenerator extends MailGenerator
+{
+    private final Random random;
+
+    /** The mail drawn for each tick from aheadFrom on. */
+    private final ArrayList<List<MailItem>> ahead = new ArrayList<List<MailItem>>();
+
+    private int aheadFrom = 0;
+
+    /** The items drawn so far, and those that have arrived. */
+    private long created = 0;
+
+    private long arrived = 0;
+
+    /**
+     * Instantiates a SteadyGenerator.
+     *
+     * @param mailMaxWeight the heaviest mail allowed
+     * @param mailPool where mail items go on arrival
+     * @param seed random seed for generating mail
+     * @param profile the shape of the workload, with a rate curve
+     */
+    public SteadyGenerator(int mailMaxWeight, IMailPool mailPool, HashMap<Boolean, Integer> seed,
+        WorkloadProfile profile)
+    {
+        // the run never delivers all its mail
+        super(Integer.MAX_VALUE, mailMaxWeight, mailPool, new HashMap<Integer, ArrayList<MailItem>>());
+        random = seed.containsKey(true) ? new Random((long) seed.get(true)) : new Random();
+        this.profile = profile;
+    }
+
+    /**
+     * @return the mail arriving at a tick, drawing it and the ticks before it if not drawn yet
+     */
+    private List<MailItem> drawTo(int time)
+    {
+        while (aheadFrom + ahead.size() <= time) {
+            ahead.add(draw(aheadFrom + ahead.size()));
+        }
+        return ahead.get(time - aheadFrom);
+    }
+
+    private List<MailItem> draw(int time)
+    {
+        // mail arrives from tick 1, as generated mail does
+        int count = (time < 1) ? 0 : profile.arrivals(random, time);
+        if (count == 0) {
+            return Collections.<MailItem>emptyList();
+        }
+        List<MailItem> arrivals = new ArrayList<MailItem>(count);
+        boolean priorityTaken = false;
+        for (int c = 0; c < count; c++) {
+            int floor = generateDestinationFloor(random);
+            int priority = generatePriorityLevel(random);
+            int weight = generateWeight(random, time);
+            String id = String.valueOf(created++);
+            // Skew towards non priority mail
+            if (random.nextInt(6) == 0 && !priorityTaken) {
+                priorityTaken = true;
+                arrivals.add(new PriorityMailItem(id, floor, time, weight, priority));
+            } else {
+                arrivals.add(new MailItem(id, floor, time, weight));
+            }
+        }
+        return arrivals;
+    }
+
+    /**
+     * Hand the mail of this tick to the pool.
+     *
+     * @return the priority item that arrived, or null
+     */
+    @Override
+    public PriorityMailItem step()
+    {
+        int now = Clock.Time();
+        if (now < aheadFrom) {
+            return null;
+        }
+        PriorityMailItem priority = null;
+        List<MailItem> arrivals = drawTo(now);
+        for (int i = 0; i < arrivals.size(); i++) {
+            MailItem mailItem = arrivals.get(i);
+            if (mailItem instanceof PriorityMailItem) {
+                priority = (PriorityMailItem) mailItem;
+            }
+            arrive(mailItem);
+        }
+        arrived += arrivals.size();
+        // the pool owns the mail from now on
+        ahead.subList(0, now + 1 - aheadFrom).clear();
+        aheadFrom = now + 1;
+        return priority;
+    }
+
+    /**
+     * {@inheritDoc} Drawn ahead of the clock and kept until it arrives.
+     */
+    @Override
+    public List<MailItem> arrivalsAt(int time)
+    {
+        return (time < aheadFrom) ? Collections.<MailItem>emptyList() : drawTo(time);
+    }
+
+    @Override
+    boolean hasMailToArrive()
+    {
+        return true;
+    }
+
+    /**
+     * The mail still to arrive has not been drawn, so a steady-state run cannot be checkpointed.
+     */
+    @Override
+    boolean canCheckpoint()
+    {
+        return false;
+    }
+
+    /**
+     * @return the items that have arrived so far
+     */
+    public long getArrived()
+    {
+        return arrived;
+    }
+
+}
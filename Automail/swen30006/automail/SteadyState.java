@@ -0,0 +1,326 @@
+package automail;
+
+import java.util.Properties;
+
+/**
+ * The Class SteadyState.
+ *
+ * @author Group W13-5
+ * @Description: SteadyState measures a run whose mail keeps arriving (see SteadyGenerator) once it has settled. The
+ *               deliveries of the first Steady_Warmup_Ticks are left out, then the run is cut into windows of
+ *               Steady_Batch_Ticks, each giving its throughput, mean latency and mean delivery score. The batch means
+ *               give a confidence interval for each measure, Student's t over the batches, and the run stops once the
+ *               throughput and latency intervals are within Steady_Precision of their means, after at least
+ *               Steady_Min_Batches, or at Steady_Max_Ticks without converging.
+ *
+ *               At most Steady_Max_Batches batches are kept: when they are all used, neighbouring batches are merged
+ *               and the batches are made twice as long from then on. Memory does not grow with the run, and the longer
+ *               batches are less correlated with each other, which the interval assumes they are not.
+ */
+public class SteadyState
+{
+    private final int warmup;
+
+    private final int minBatches;
+
+    private final double precision;
+
+    private final int maxTicks;
+
+    /** The t quantile is worked out from the normal quantile of this probability. */
+    private final double confidence;
+
+    private final double upper;
+
+    private int batchTicks;
+
+    /** The totals of each batch. */
+    private final long[] deliveries;
+
+    private final long[] arrivals;
+
+    private final double[] latency;
+
+    private final double[] score;
+
+    private int batches = 0;
+
+    /** The windows closed since the warm-up, before any merging. */
+    private int windows = 0;
+
+    /** The batch being filled. */
+    private int batchStart;
+
+    private long batchDeliveries = 0;
+
+    private double batchLatency = 0;
+
+    private double batchScore = 0;
+
+    private long arrivedBefore = 0;
+
+    /** Every delivery of the run, warm-up included. */
+    private int delivered = 0;
+
+    private boolean converged = false;
+
+    private boolean done = false;
+
+    /**
+     * Read the settings of a steady-state run.
+     *
+     * @param p the automail properties
+     */
+    public SteadyState(Properties p)
+    {
+        warmup = Integer.parseInt(p.getProperty("Steady_Warmup_Ticks"));
+        batchTicks = Integer.parseInt(p.getProperty("Steady_Batch_Ticks"));
+        minBatches = Integer.parseInt(p.getProperty("Steady_Min_Batches"));
+        int maxBatches = Integer.parseInt(p.getProperty("Steady_Max_Batches"));
+        precision = Double.parseDouble(p.getProperty("Steady_Precision"));
+        confidence = Double.parseDouble(p.getProperty("Steady_Confidence"));
+        maxTicks = Integer.parseInt(p.getProperty("Steady_Max_Ticks"));
+        if (warmup < 0 || batchTicks < 1) {
+            throw new IllegalArgumentException("Steady_Warmup_Ticks must be at least 0 and Steady_Batch_Ticks 1");
+        }
+        if (minBatches < 2 || maxBatches < 2 * minBatches || maxBatches % 2 != 0) {
+            throw new IllegalArgumentException(
+                "Steady_Min_Batches must be at least 2 and Steady_Max_Batches even and at least twice as many");
+        }
+        if (confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("Steady_Confidence must be between 0 and 1: " + confidence);
+        }
+        upper = normalQuantile((1 + confidence) / 2);
+        deliveries = new long[maxBatches];
+        arrivals = new long[maxBatches];
+        latency = new double[maxBatches];
+        score = new double[maxBatches];
+        batchStart = warmup;
+    }
+
+    /**
+     * Count a delivery made at the current tick, measured once the warm-up is over.
+     *
+     * @param mailItem the item delivered
+     * @param deliveryScore the score of the delivery
+     */
+    public void delivered(MailItem mailItem, double deliveryScore)
+    {
+        delivered++;
+        if (Clock.Time() >= warmup) {
+            batchDeliveries++;
+            batchLatency += Clock.Time() - mailItem.getArrivalTime();
+            batchScore += deliveryScore;
+        }
+    }
+
+    /**
+     * Close the batch if the tick that just ended is its last, and check whether the run has converged.
+     *
+     * @param arrived the items that have arrived so far
+     * @param poolSize the items waiting in the pool
+     */
+    public void endTick(long arrived, int poolSize)
+    {
+        int now = Clock.Time();
+        if (now + 1 == warmup) {
+            arrivedBefore = arrived;
+        }
+        if (now >= warmup && now + 1 - batchStart == batchTicks) {
+            deliveries[batches] = batchDeliveries;
+            arrivals[batches] = arrived - arrivedBefore;
+            latency[batches] = batchLatency;
+            score[batches] = batchScore;
+            batches++;
+            windows++;
+            System.out.printf("T: %3d > Window %d: delivered %d, arrived %d, throughput %.4f, mean latency %.2f,"
+                + " pool %d%n", now, windows, batchDeliveries, arrived - arrivedBefore,
+                (double) batchDeliveries / batchTicks, (batchDeliveries == 0) ? 0.0 : batchLatency / batchDeliveries,
+                poolSize);
+            if (batches == deliveries.length) {
+                merge();
+            }
+            batchStart = now + 1;
+            batchDeliveries = 0;
+            batchLatency = 0;
+            batchScore = 0;
+            arrivedBefore = arrived;
+            converged = batches >= minBatches && relativeHalfWidth(throughputs()) <= precision
+                && relativeHalfWidth(latencies()) <= precision;
+        }
+        done = converged || (maxTicks > 0 && now + 1 >= maxTicks);
+    }
+
+    /**
+     * Merge neighbouring batches, halving their number, and make the batches twice as long.
+     */
+    private void merge()
+    {
+        for (int k = 0; k < batches / 2; k++) {
+            deliveries[k] = deliveries[2 * k] + deliveries[2 * k + 1];
+            arrivals[k] = arrivals[2 * k] + arrivals[2 * k + 1];
+            latency[k] = latency[2 * k] + latency[2 * k + 1];
+            score[k] = score[2 * k] + score[2 * k + 1];
+        }
+        batches /= 2;
+        batchTicks *= 2;
+    }
+
+    /**
+     * @return true once the run has converged or reached Steady_Max_Ticks
+     */
+    public boolean isDone()
+    {
+        return done;
+    }
+
+    /**
+     * @return every delivery of the run
+     */
+    public int getDelivered()
+    {
+        return delivered;
+    }
+
+    private double[] throughputs()
+    {
+        double[] x = new double[batches];
+        for (int k = 0; k < batches; k++) {
+            x[k] = (double) deliveries[k] / batchTicks;
+        }
+        return x;
+    }
+
+    /**
+     * @return the mean latency of each batch that delivered anything
+     */
+    private double[] latencies()
+    {
+        return perDelivery(latency);
+    }
+
+    private double[] perDelivery(double[] totals)
+    {
+        int n = 0;
+        for (int k = 0; k < batches; k++) {
+            if (deliveries[k] > 0) {
+                n++;
+            }
+        }
+        double[] x = new double[n];
+        n = 0;
+        for (int k = 0; k < batches; k++) {
+            if (deliveries[k] > 0) {
+                x[n++] = totals[k] / deliveries[k];
+            }
+        }
+        return x;
+    }
+
+    private static double mean(double[] x)
+    {
+        double sum = 0;
+        for (double v : x) {
+            sum += v;
+        }
+        return (x.length == 0) ? 0 : sum / x.length;
+    }
+
+    /**
+     * @return the half width of the confidence interval for the mean of the batch means
+     */
+    private double halfWidth(double[] x)
+    {
+        int n = x.length;
+        if (n < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double m = mean(x);
+        double squares = 0;
+        for (double v : x) {
+            squares += (v - m) * (v - m);
+        }
+        return tQuantile(n - 1) * Math.sqrt(squares / (n - 1) / n);
+    }
+
+    private double relativeHalfWidth(double[] x)
+    {
+        double m = mean(x);
+        double h = halfWidth(x);
+        return (m == 0) ? ((h == 0) ? 0 : Double.POSITIVE_INFINITY) : h / Math.abs(m);
+    }
+
+    /**
+     * @return the correlation of each batch mean with the next, near 0 if the batches are long enough
+     */
+    private static double lagOneCorrelation(double[] x)
+    {
+        double m = mean(x);
+        double products = 0;
+        double squares = 0;
+        for (int k = 0; k < x.length; k++) {
+            squares += (x[k] - m) * (x[k] - m);
+            if (k + 1 < x.length) {
+                products += (x[k] - m) * (x[k + 1] - m);
+            }
+        }
+        return (squares == 0) ? 0 : products / squares;
+    }
+
+    /**
+     * The quantile of Student's t distribution, by the Cornish-Fisher expansion about the normal quantile.
+     */
+    private double tQuantile(int dof)
+    {
+        double z = upper;
+        double z3 = z * z * z;
+        double z5 = z3 * z * z;
+        double z7 = z5 * z * z;
+        return z + (z3 + z) / (4.0 * dof) + (5 * z5 + 16 * z3 + 3 * z) / (96.0 * dof * dof)
+            + (3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384.0 * dof * dof * dof);
+    }
+
+    /**
+     * The quantile of the standard normal distribution for a probability above one half, to within 5e-4 (Abramowitz
+     * and Stegun 26.2.23).
+     */
+    private static double normalQuantile(double p)
+    {
+        double t = Math.sqrt(-2 * Math.log(1 - p));
+        return t - (2.515517 + 0.802853 * t + 0.010328 * t * t) / (1 + 1.432788 * t + 0.189269 * t * t
+            + 0.001308 * t * t * t);
+    }
+
+    /**
+     * Print the measures of the run with their confidence intervals.
+     */
+    public void printResults()
+    {
+        System.out.printf("T: %3d | Steady state %s after %d batches of %d ticks (warm-up %d ticks)%n", Clock.Time(),
+            converged ? "converged" : "did not converge", batches, batchTicks, warmup);
+        if (batches == 0) {
+            return;
+        }
+        double[] throughput = throughputs();
+        double[] arrivalRate = new double[batches];
+        for (int k = 0; k < batches; k++) {
+            arrivalRate[k] = (double) arrivals[k] / batchTicks;
+        }
+        double[] meanLatency = latencies();
+        double[] meanScore = perDelivery(score);
+        int percent = (int) Math.round(confidence * 100);
+        System.out.printf("Arrival rate: %.4f +/- %.4f per tick%n", mean(arrivalRate), halfWidth(arrivalRate));
+        System.out.printf("Throughput: %.4f +/- %.4f deliveries per tick (%d%% confidence)%n", mean(throughput),
+            halfWidth(throughput), percent);
+        System.out.printf("Mean latency: %.2f +/- %.2f ticks (%d%% confidence)%n", mean(meanLatency),
+            halfWidth(meanLatency), percent);
+        System.out.printf("Mean delivery score: %.2f +/- %.2f (%d%% confidence)%n", mean(meanScore),
+            halfWidth(meanScore), percent);
+        System.out.printf("Lag-1 correlation of the batch means: throughput %.2f, latency %.2f%n",
+            lagOneCorrelation(throughput), lagOneCorrelation(meanLatency));
+        if (mean(arrivalRate) - mean(throughput) > halfWidth(arrivalRate) + halfWidth(throughput)) {
+            System.out.println("Overloaded: mail arrives faster than it is delivered, the backlog has no steady state");
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package automail;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * The Class StreamRandom.
+ *
+ * @author Group W13-5
+ * @Description: StreamRandom is a Random that draws from its own SplittableRandom stream. Each stream is derived from
+ *               one seed and an index (a mail item or a tick), so values can be drawn for any index on any thread and
+ *               still be the same for the same seed. Being a Random, it works with the generator's draw methods.
+ */
+class StreamRandom extends Random
+{
+    private static final long serialVersionUID = 1L;
+
+    private final SplittableRandom stream;
+
+    /**
+     * Instantiates the stream for one index.
+     *
+     * @param seed the seed of the whole workload
+     * @param domain separates streams used for different purposes
+     * @param index the index of the stream
+     */
+    StreamRandom(long seed, long domain, long index)
+    {
+        super(0);
+        stream = new SplittableRandom(mix(seed, domain, index));
+    }
+
+    @Override
+    protected int next(int bits)
+    {
+        return stream.nextInt() >>> (32 - bits);
+    }
+
+    /**
+     * Scramble the seed, domain and index into the seed of one stream (the SplitMix64 finaliser).
+     */
+    static long mix(long seed, long domain, long index)
+    {
+        long z = seed + domain * 0xD1B54A32D192ED03L + index * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -0,0 +1,107 @@
+package automail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * The Class TraceBisect.
+ *
+ * @author Group W13-5
+ * @Description: TraceBisect finds the first tick at which two builds of the simulation behave differently. It runs
+ *               the same seed on both builds with fingerprint checkpoints every interval, finds the first interval
+ *               whose fingerprints differ, and runs that interval again with a checkpoint every tick. Both builds must
+ *               record fingerprints, and both are run with the automail.properties of the current directory.
+ *
+ *               Usage: java automail.TraceBisect classpathA classpathB [seed] [interval]
+ */
+public class TraceBisect
+{
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length < 2) {
+            System.out.println("Usage: java automail.TraceBisect classpathA classpathB [seed] [interval]");
+            return;
+        }
+        String seed = (args.length > 2) ? args[2] : "";
+        int interval = (args.length > 3) ? Integer.parseInt(args[3]) : 100;
+
+        ArrayList<String[]> a = run(args[0], seed + " Fingerprint_Interval=" + interval);
+        ArrayList<String[]> b = run(args[1], seed + " Fingerprint_Interval=" + interval);
+        int window = firstDifference(a, b);
+        if (window < 0) {
+            System.out.printf("Identical: fingerprint %s%n", a.get(a.size() - 1)[1]);
+            return;
+        }
+        if (window == a.size() - 1 || window == b.size() - 1) {
+            // the runs ended in different intervals, or differ in the last one
+            window = Math.min(a.size(), b.size()) - 1;
+        }
+        // the lines are labelled with the last tick of their interval, and the "end" line follows the last of them
+        String[] line = a.get(window);
+        int from = (window > 0) ? Integer.parseInt(a.get(window - 1)[0]) + 1
+            : line[0].equals("end") ? 0 : Math.max(0, Integer.parseInt(line[0]) - interval + 1);
+        System.out.printf("First different interval: T: %d to %d%n", from, from + interval - 1);
+
+        String narrow = seed + " Fingerprint_Interval=1 Max_Ticks=" + (from + interval);
+        a = run(args[0], narrow);
+        b = run(args[1], narrow);
+        int tick = firstDifference(a, b);
+        if (tick < 0 || tick >= a.size() - 1 || tick >= b.size() - 1) {
+            System.out.printf("First divergence in the last ticks of the runs, from T: %d%n", from);
+        } else {
+            System.out.printf("First divergence at T: %s (%s vs %s)%n", a.get(tick)[0], a.get(tick)[1], b.get(tick)[1]);
+        }
+    }
+
+    /**
+     * @return the index of the first line that differs, or -1 if the fingerprints are the same. The lines before the
+     *         first tick both runs have a line for are dropped, as a resumed run has none for the ticks before it.
+     */
+    private static int firstDifference(ArrayList<String[]> a, ArrayList<String[]> b)
+    {
+        while (a.size() > 1 && b.size() > 1) {
+            long first = Long.parseLong(a.get(0)[0]) - Long.parseLong(b.get(0)[0]);
+            if (first == 0) {
+                break;
+            }
+            (first < 0 ? a : b).remove(0);
+        }
+        int n = Math.min(a.size(), b.size());
+        for (int k = 0; k < n; k++) {
+            if (!a.get(k)[0].equals(b.get(k)[0]) || !a.get(k)[1].equals(b.get(k)[1])) {
+                return k;
+            }
+        }
+        return (a.size() == b.size()) ? -1 : n;
+    }
+
+    /**
+     * Run one scenario on a build and read back its fingerprint checkpoints.
+     */
+    private static ArrayList<String[]> run(String classpath, String scenario) throws IOException, InterruptedException
+    {
+        File file = File.createTempFile("automail", ".fingerprint");
+        file.deleteOnExit();
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", classpath, BatchServer.class.getName());
+        // the null device, as Redirect.DISCARD needs Java 9
+        File nullFile = new File(System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null");
+        builder.redirectError(ProcessBuilder.Redirect.to(nullFile));
+        Process process = builder.start();
+        try (PrintWriter in = new PrintWriter(process.getOutputStream(), true);
+            BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            in.println(scenario + " Fingerprint_File=" + file.getPath());
+            String result = out.readLine();
+            if (result == null || result.contains("status=error")) {
+                throw new IllegalStateException("Unable to run " + classpath + ": " + result);
+            }
+        }
+        process.waitFor();
+        return Fingerprint.read(file.getPath());
+    }
+
+}
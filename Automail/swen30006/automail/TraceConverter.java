@@ -0,0 +1,110 @@
+package automail;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The Class TraceConverter.
+ *
+ * @author Group W13-5
+ * @Description: TraceConverter turns an arrival log in CSV into a trace for TraceReplay. Each line is the arrival
+ *               tick, floor, weight and priority (0 or empty for normal mail), and the lines must be in arrival order.
+ *               A header line and lines starting with # are skipped. The log is streamed, so it can be larger than
+ *               the heap.
+ *
+ *               Usage: java automail.TraceConverter <arrivals.csv> <arrivals.trace>
+ */
+public class TraceConverter
+{
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2) {
+            System.out.println("Usage: java automail.TraceConverter <arrivals.csv> <arrivals.trace>");
+            System.exit(1);
+        }
+        long records = convert(args[0], args[1]);
+        System.out.printf("Converted %d arrivals to %s%n", records, args[1]);
+    }
+
+    /**
+     * Convert an arrival log.
+     *
+     * @param csv the log to read
+     * @param trace the trace to write
+     * @return the number of records written
+     * @throws IOException if the log cannot be read, is out of order or has a bad line, or the trace cannot be written
+     */
+    public static long convert(String csv, String trace) throws IOException
+    {
+        BufferedReader in = new BufferedReader(new FileReader(csv));
+        FileChannel channel = FileChannel.open(Paths.get(trace), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+            // the number of records is filled in at the end
+            buffer.putInt(TraceReplay.MAGIC).putInt(TraceReplay.VERSION).putLong(0);
+            long records = 0;
+            int lastTick = Integer.MIN_VALUE;
+            int lineNumber = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || !Character.isDigit(line.charAt(0))) {
+                    continue;
+                }
+                String[] fields = line.split(",", -1);
+                int tick;
+                int floor;
+                int weight;
+                int priority;
+                try {
+                    tick = Integer.parseInt(fields[0].trim());
+                    floor = Integer.parseInt(fields[1].trim());
+                    weight = Integer.parseInt(fields[2].trim());
+                    priority = (fields.length < 4 || fields[3].trim().isEmpty()) ? 0
+                        : Integer.parseInt(fields[3].trim());
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException(String.format("%s line %d: expected tick,floor,weight,priority", csv,
+                        lineNumber));
+                }
+                if (tick < lastTick) {
+                    throw new IOException(String.format("%s line %d: arrivals must be in order of tick", csv,
+                        lineNumber));
+                }
+                if (floor < 0 || floor > Short.MAX_VALUE || priority < 0 || priority > Short.MAX_VALUE || weight < 0) {
+                    throw new IOException(String.format("%s line %d: floor, weight or priority out of range", csv,
+                        lineNumber));
+                }
+                lastTick = tick;
+                if (buffer.remaining() < TraceReplay.RECORD_BYTES) {
+                    flush(channel, buffer);
+                }
+                buffer.putInt(tick).putInt(weight).putShort((short) floor).putShort((short) priority);
+                records++;
+            }
+            flush(channel, buffer);
+            buffer.putLong(records).flip();
+            channel.write(buffer, 8);
+            return records;
+        } finally {
+            in.close();
+            channel.close();
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+}
@@ -0,0 +1,198 @@
+package automail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import strategies.IMailPool;
+
+/**
+ * The Class TraceReplay.
+ *
+ * @author Group W13-5
+ * @Description: TraceReplay feeds the pool with recorded arrivals instead of generated mail. The trace file is mapped
+ *               into memory a window at a time and each record is decoded only when the clock reaches its tick, so a
+ *               trace of any size replays without being read onto the heap. Traces are made from CSV by
+ *               TraceConverter.
+ *
+ *               The file starts with the int magic "AMTR", the int version and the long number of records. Each
+ *               record is the int arrival tick, the int weight, the short floor and the short priority (0 for normal
+ *               mail), big endian, in arrival order.
+ */
+public class TraceReplay extends MailGenerator
+{
+    public static final int MAGIC = 0x414D5452;
+
+    public static final int VERSION = 1;
+
+    public static final int HEADER_BYTES = 16;
+
+    public static final int RECORD_BYTES = 12;
+
+    /** The records mapped at a time, well under the 2 GB a single mapping can hold. */
+    private static final long WINDOW_RECORDS = 1 << 24;
+
+    private final FileChannel channel;
+
+    private final long records;
+
+    /** The next record to arrive. */
+    private long next = 0;
+
+    /** The mapped window and the first record in it. */
+    private MappedByteBuffer window = null;
+
+    private long windowStart = 0;
+
+    private TraceReplay(FileChannel channel, long records, int mailMaxWeight, IMailPool mailPool)
+    {
+        super((int) records, mailMaxWeight, mailPool, new HashMap<Integer, ArrayList<MailItem>>());
+        this.channel = channel;
+        this.records = records;
+    }
+
+    /**
+     * Open a trace to replay.
+     *
+     * @param path the trace file
+     * @param mailMaxWeight the heaviest mail allowed
+     * @param mailPool where mail items go on arrival
+     * @return the replay, positioned before the first record
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    public static TraceReplay open(String path, int mailMaxWeight, IMailPool mailPool) throws IOException
+    {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    break;
+                }
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException(path + " is not an arrival trace.");
+            }
+            if (header.getInt() != VERSION) {
+                throw new IOException(path + " was written by a different version.");
+            }
+            long records = header.getLong();
+            if (records > Integer.MAX_VALUE || channel.size() != HEADER_BYTES + records * RECORD_BYTES) {
+                throw new IOException(path + " is truncated or holds more records than a run can deliver.");
+            }
+            return new TraceReplay(channel, records, mailMaxWeight, mailPool);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the byte offset of a record within the window, mapping the window that holds it first
+     */
+    private int offset(long record)
+    {
+        if (window == null || record < windowStart || record >= windowStart + WINDOW_RECORDS) {
+            windowStart = record - record % WINDOW_RECORDS;
+            long count = Math.min(WINDOW_RECORDS, records - windowStart);
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + windowStart * RECORD_BYTES,
+                    count * RECORD_BYTES);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to map the arrival trace", e);
+            }
+        }
+        return (int) (record - windowStart) * RECORD_BYTES;
+    }
+
+    private int tick(long record)
+    {
+        // map the window before reading from it
+        int at = offset(record);
+        return window.getInt(at);
+    }
+
+    /**
+     * Decode a record into a mail item, identified by its position in the trace.
+     */
+    private MailItem read(long record)
+    {
+        int at = offset(record);
+        int arrival = window.getInt(at);
+        int weight = window.getInt(at + 4);
+        int floor = window.getShort(at + 8);
+        int priority = window.getShort(at + 10);
+        if (floor < Building.LOWEST_FLOOR || floor >= Building.LOWEST_FLOOR + Building.FLOORS) {
+            throw new IllegalStateException(String.format("Trace record %d is for floor %d, outside the building",
+                record, floor));
+        }
+        String id = String.valueOf(record);
+        return (priority == 0) ? new MailItem(id, floor, arrival, weight)
+            : new PriorityMailItem(id, floor, arrival, weight, priority);
+    }
+
+    /**
+     * Hand the records up to this tick to the pool.
+     *
+     * @return the last priority item that arrived, or null
+     */
+    @Override
+    public PriorityMailItem step()
+    {
+        PriorityMailItem priority = null;
+        while (next < records && tick(next) <= Clock.Time()) {
+            MailItem mailItem = read(next++);
+            if (mailItem instanceof PriorityMailItem) {
+                priority = (PriorityMailItem) mailItem;
+            }
+            arrive(mailItem);
+        }
+        return priority;
+    }
+
+    /**
+     * {@inheritDoc} Decoded from the records ahead, without consuming them.
+     */
+    @Override
+    public List<MailItem> arrivalsAt(int time)
+    {
+        List<MailItem> arrivals = new ArrayList<MailItem>();
+        for (long record = next; record < records && tick(record) <= time; record++) {
+            if (tick(record) == time) {
+                arrivals.add(read(record));
+            }
+        }
+        return arrivals;
+    }
+
+    @Override
+    boolean hasMailToArrive()
+    {
+        return next < records;
+    }
+
+    /**
+     * The mail still to arrive stays in the trace file, so a replay cannot be checkpointed.
+     */
+    @Override
+    boolean canCheckpoint()
+    {
+        return false;
+    }
+
+    /**
+     * Close the trace file.
+     */
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,91 @@
+package automail;
+
+import java.io.PrintStream;
+
+import strategies.IMailPool;
+
+/**
+ * The Class Watchdog.
+ *
+ * @author Group W13-5
+ * @Description: Watchdog stops a run that is no longer making progress, so a strategy bug cannot spin a core forever.
+ *               A run stalls when no mail is delivered for a number of ticks while mail is waiting or on a robot, or
+ *               when nothing is left to arrive. A run can also be given a hard budget of ticks or of wall clock time.
+ *               When the watchdog fires it prints the pool, the robots and the group being formed to stderr, and the
+ *               run ends as failed.
+ */
+public class Watchdog
+{
+    /** The most ticks without a delivery, 0 for no limit. */
+    private final int stallTicks;
+
+    /** The last tick a run may reach, 0 for no limit. */
+    private final int maxTicks;
+
+    /** The wall clock time a run must end by, 0 for no limit. */
+    private final long deadline;
+
+    private int lastDelivered = -1;
+
+    private int lastProgress;
+
+    /**
+     * Instantiates a Watchdog for a run starting now.
+     *
+     * @param stallTicks the most ticks without a delivery, 0 for no limit
+     * @param maxTicks the last tick the run may reach, 0 for no limit
+     * @param maxWallSeconds the most seconds the run may take, 0 for no limit
+     */
+    public Watchdog(int stallTicks, int maxTicks, long maxWallSeconds)
+    {
+        this.stallTicks = stallTicks;
+        this.maxTicks = maxTicks;
+        deadline = (maxWallSeconds > 0) ? System.nanoTime() + maxWallSeconds * 1000000000L : 0;
+        lastProgress = Clock.Time();
+    }
+
+    /**
+     * Check the run at the start of a tick.
+     *
+     * @param delivered the number of items delivered so far
+     * @param idle true if the pool is empty, every robot is waiting and more mail is still to arrive
+     * @return null to carry on, or why the run must stop: stalled, tick_budget or wall_budget
+     */
+    public String check(int delivered, boolean idle)
+    {
+        if (delivered != lastDelivered || idle) {
+            lastDelivered = delivered;
+            lastProgress = Clock.Time();
+        }
+        if (stallTicks > 0 && Clock.Time() - lastProgress >= stallTicks) {
+            return "stalled";
+        }
+        if (maxTicks > 0 && Clock.Time() >= maxTicks) {
+            return "tick_budget";
+        }
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            return "wall_budget";
+        }
+        return null;
+    }
+
+    /**
+     * Print what the run was doing when it was stopped.
+     *
+     * @param out where to print
+     * @param reason why the run was stopped
+     * @param delivered the number of items delivered
+     * @param mailPool the mail pool
+     * @param robots the robots
+     */
+    public void dump(PrintStream out, String reason, int delivered, IMailPool mailPool, Robot[] robots)
+    {
+        out.printf("T: %3d > Run stopped (%s), last delivery at T: %d, delivered %d%n", Clock.Time(), reason,
+            lastProgress, delivered);
+        mailPool.printState(out);
+        for (Robot r : robots) {
+            out.println("  " + r.describe());
+        }
+    }
+
+}
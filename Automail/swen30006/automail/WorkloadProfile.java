@@ -0,0 +1,233 @@
+package automail;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * The Class WorkloadProfile.
+ *
+ * @author Group W13-5
+ * @Description: WorkloadProfile changes the shape of the mail generated by MailGenerator. Arrivals can follow a
+ *               Poisson process with a flat (poisson), on/off (bursty) or daily (diurnal) rate curve, some floors can
+ *               receive a larger share of the mail (hotspots), and a window of time can receive more heavy items
+ *               (heavy surge). It is read from automail.properties; without any of these properties the generator
+ *               keeps its original uniform workload.
+ */
+public class WorkloadProfile
+{
+    /** The largest Poisson mean drawn in one go, larger means are split to keep exp(-mean) accurate. */
+    private static final double POISSON_CHUNK = 30.0;
+
+    /** The arrival process: uniform, poisson, bursty or diurnal. */
+    private final String arrivals;
+
+    /** The mean number of arrivals per tick. */
+    private final double rate;
+
+    private final int burstPeriod;
+
+    private final int burstLength;
+
+    private final double burstFactor;
+
+    private final int diurnalPeriod;
+
+    private final int diurnalPeak;
+
+    private final double diurnalAmplitude;
+
+    /** The hotspot floors and the share of mail sent to them. */
+    private final int[] hotspotFloors;
+
+    private final double hotspotShare;
+
+    /** The heavy surge window and the share of mail in it that is heavy. */
+    private final int surgeStart;
+
+    private final int surgeEnd;
+
+    private final double surgeShare;
+
+    private WorkloadProfile(Properties p)
+    {
+        arrivals = p.getProperty("Arrival_Profile", "uniform");
+        String rateProp = p.getProperty("Arrival_Rate");
+        rate = (rateProp != null) ? Double.parseDouble(rateProp)
+            : Double.parseDouble(p.getProperty("Mail_to_Create"))
+                / Double.parseDouble(p.getProperty("Last_Delivery_Time"));
+        burstPeriod = Integer.parseInt(p.getProperty("Burst_Period", "60"));
+        burstLength = Integer.parseInt(p.getProperty("Burst_Length", "10"));
+        burstFactor = Double.parseDouble(p.getProperty("Burst_Factor", "4"));
+        diurnalPeriod = Integer.parseInt(p.getProperty("Diurnal_Period", p.getProperty("Last_Delivery_Time")));
+        diurnalPeak = Integer.parseInt(p.getProperty("Diurnal_Peak", "0"));
+        diurnalAmplitude = Double.parseDouble(p.getProperty("Diurnal_Amplitude", "0.8"));
+        String hotspots = p.getProperty("Hotspot_Floors", "").trim();
+        if (hotspots.isEmpty()) {
+            hotspotFloors = new int[0];
+        } else {
+            String[] floors = hotspots.split(",");
+            hotspotFloors = new int[floors.length];
+            for (int i = 0; i < floors.length; i++) {
+                hotspotFloors[i] = Integer.parseInt(floors[i].trim());
+            }
+        }
+        hotspotShare = Double.parseDouble(p.getProperty("Hotspot_Share", "0.5"));
+        surgeStart = Integer.parseInt(p.getProperty("Heavy_Surge_Start", "-1"));
+        surgeEnd = Integer.parseInt(p.getProperty("Heavy_Surge_End", "-1"));
+        surgeShare = Double.parseDouble(p.getProperty("Heavy_Surge_Share", "0.5"));
+        if (!arrivals.equals("uniform") && !arrivals.equals("poisson") && !arrivals.equals("bursty")
+            && !arrivals.equals("diurnal")) {
+            throw new IllegalArgumentException("Unknown Arrival_Profile: " + arrivals);
+        }
+    }
+
+    /**
+     * Read the profile from the properties.
+     *
+     * @param p the automail properties
+     * @return the profile, or null if the original uniform workload is wanted
+     */
+    public static WorkloadProfile fromProperties(Properties p)
+    {
+        WorkloadProfile profile = new WorkloadProfile(p);
+        if (!profile.hasRateCurve() && profile.hotspotFloors.length == 0 && profile.surgeStart < 0) {
+            return null;
+        }
+        return profile;
+    }
+
+    /**
+     * Read the profile of a run whose mail keeps arriving, at Arrival_Rate (or Mail_to_Create / Last_Delivery_Time) per
+     * tick. Such a run has no arrival window for the original uniform workload, so it is taken as poisson.
+     *
+     * @param p the automail properties
+     * @return the profile, always with a rate curve
+     */
+    public static WorkloadProfile continuousFromProperties(Properties p)
+    {
+        Properties continuous = new Properties();
+        continuous.putAll(p);
+        if (p.getProperty("Arrival_Profile", "uniform").equals("uniform")) {
+            continuous.setProperty("Arrival_Profile", "poisson");
+        }
+        return new WorkloadProfile(continuous);
+    }
+
+    /**
+     * @return true if arrivals follow a rate curve, false if they keep the original uniform arrival time
+     */
+    public boolean hasRateCurve()
+    {
+        return !arrivals.equals("uniform");
+    }
+
+    /**
+     * @param t the tick
+     * @return the mean number of arrivals at the tick
+     */
+    public double rate(int t)
+    {
+        if (arrivals.equals("bursty")) {
+            double mean = (burstLength * burstFactor + (burstPeriod - burstLength)) / burstPeriod;
+            return rate * ((t % burstPeriod < burstLength) ? burstFactor : 1) / mean;
+        } else if (arrivals.equals("diurnal")) {
+            return rate * Math.max(0, 1 + diurnalAmplitude * Math.cos(2 * Math.PI * (t - diurnalPeak) / diurnalPeriod));
+        }
+        return rate;
+    }
+
+    /**
+     * Draw the number of arrivals at every tick from 1 to lastTick.
+     *
+     * @param random the random source of the generator
+     * @param lastTick the last tick mail arrives at
+     * @return the number of arrivals, indexed by tick
+     */
+    public int[] arrivalCounts(Random random, int lastTick)
+    {
+        int[] counts = new int[lastTick + 1];
+        for (int t = 1; t <= lastTick; t++) {
+            counts[t] = arrivals(random, t);
+        }
+        return counts;
+    }
+
+    /**
+     * Draw the number of arrivals at every tick from 1 to lastTick on all cores, each tick from its own stream.
+     *
+     * @param seed the seed of the workload
+     * @param lastTick the last tick mail arrives at
+     * @return the number of arrivals, indexed by tick
+     */
+    public int[] arrivalCounts(final long seed, int lastTick)
+    {
+        final int[] counts = new int[lastTick + 1];
+        IntStream.rangeClosed(1, lastTick).parallel()
+            .forEach(t -> counts[t] = arrivals(new StreamRandom(seed, MailGenerator.TICK_STREAMS, t), t));
+        return counts;
+    }
+
+    /**
+     * Draw the number of arrivals at a tick.
+     *
+     * @param random the random source of the generator
+     * @param t the tick
+     * @return the number of arrivals
+     */
+    int arrivals(Random random, int t)
+    {
+        int count = 0;
+        double mean = rate(t);
+        while (mean > 0) {
+            double chunk = Math.min(mean, POISSON_CHUNK);
+            count += poisson(random, chunk);
+            mean -= chunk;
+        }
+        return count;
+    }
+
+    private static int poisson(Random random, double mean)
+    {
+        double limit = Math.exp(-mean);
+        double product = random.nextDouble();
+        int count = 0;
+        while (product > limit) {
+            product *= random.nextDouble();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Choose a hotspot floor for a share of the mail.
+     *
+     * @param random the random source of the generator
+     * @return a hotspot floor, or -1 to use a uniform floor
+     */
+    public int hotspotFloor(Random random)
+    {
+        if (hotspotFloors.length == 0 || random.nextDouble() >= hotspotShare) {
+            return -1;
+        }
+        return hotspotFloors[random.nextInt(hotspotFloors.length)];
+    }
+
+    /**
+     * Choose a heavy weight for a share of the mail arriving in the surge window.
+     *
+     * @param random the random source of the generator
+     * @param arrival the arrival time of the mail
+     * @param maxWeight the heaviest mail allowed
+     * @return a heavy weight, or -1 to use the normal weight
+     */
+    public int surgeWeight(Random random, int arrival, int maxWeight)
+    {
+        if (arrival < surgeStart || arrival > surgeEnd || maxWeight <= Robot.INDIVIDUAL_MAX_WEIGHT
+            || random.nextDouble() >= surgeShare) {
+            return -1;
+        }
+        return Robot.INDIVIDUAL_MAX_WEIGHT + 1 + random.nextInt(maxWeight - Robot.INDIVIDUAL_MAX_WEIGHT);
+    }
+
+}
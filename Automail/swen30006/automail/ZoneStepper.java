@@ -0,0 +1,324 @@
+package automail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import exceptions.ExcessiveDeliveryException;
+import exceptions.ItemTooHeavyException;
+import strategies.ZonedMailPool;
+
+/**
+ * The Class ZoneStepper.
+ *
+ * @author Group W13-5
+ * @Description: ZoneStepper steps the zones of a ZonedMailPool, each zone's pool and then its robots, on separate
+ *               threads within a tick. What a zone does that is shared with the rest of the run, printing, deliveries,
+ *               fingerprint and archive events, is logged by the zone's thread and replayed in zone order once all
+ *               zones have stepped. The trace, score, fingerprint and archive are therefore the same however many
+ *               threads are used.
+ */
+public class ZoneStepper
+{
+    /** What one zone did during a tick, in order. */
+    private static class ZoneLog
+    {
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+
+        /** Text, deliveries and fingerprint events, in the order they happened, reused from tick to tick. */
+        final ArrayList<Entry> entries = new ArrayList<Entry>();
+
+        /** The number of entries used this tick. */
+        int size = 0;
+
+        /**
+         * @return the next unused entry
+         */
+        Entry add()
+        {
+            if (size == entries.size()) {
+                entries.add(new Entry());
+            }
+            return entries.get(size++);
+        }
+
+        void endText()
+        {
+            if (text.size() > 0) {
+                add().text = text.toByteArray();
+                text.reset();
+            }
+        }
+    }
+
+    /** Text, a delivery, a fingerprint event or an archived event. */
+    private static class Entry
+    {
+        byte[] text;
+
+        IMailDelivery delivery;
+
+        MailItem mailItem;
+
+        Robot robot;
+
+        /** True if the event is for the run archive, its code, a and b being in a, b and c. */
+        boolean archived;
+
+        int type;
+
+        int a;
+
+        int b;
+
+        int c;
+
+        void clear()
+        {
+            text = null;
+            delivery = null;
+            mailItem = null;
+            robot = null;
+            archived = false;
+        }
+    }
+
+    /** True while zones are stepping, so the shared side effects are logged. */
+    private static volatile boolean capturing = false;
+
+    private static final ThreadLocal<ZoneLog> current = new ThreadLocal<ZoneLog>();
+
+    private final ZonedMailPool pool;
+
+    private final ZoneLog[] logs;
+
+    /** The exception that stopped each zone this tick, or null. */
+    private final Throwable[] failures;
+
+    /** Null to step the zones in turn on the calling thread. */
+    private final ExecutorService executor;
+
+    /** A task to step each zone, on the executor. */
+    private final List<Callable<Throwable>> tasks = new ArrayList<Callable<Throwable>>();
+
+    /** Standard output while the zones step, and the real standard output it passes text to. */
+    private final PrintStream capture;
+
+    private final PrintStream console;
+
+    /**
+     * Instantiates a ZoneStepper.
+     *
+     * @param pool the zoned pool
+     * @param threads the number of threads to step the zones on, 1 steps them on the calling thread
+     */
+    public ZoneStepper(ZonedMailPool pool, int threads)
+    {
+        this.pool = pool;
+        logs = new ZoneLog[pool.getZoneCount()];
+        failures = new Throwable[logs.length];
+        for (int z = 0; z < logs.length; z++) {
+            logs[z] = new ZoneLog();
+            final int zone = z;
+            tasks.add(() -> stepZone(zone));
+        }
+        threads = Math.min(threads, logs.length);
+        executor = (threads > 1) ? Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "zone");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        // made once, as a print stream is costly to make every tick
+        console = System.out;
+        capture = new PrintStream(new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                ZoneLog log = current.get();
+                if (log == null) {
+                    console.write(b);
+                } else {
+                    log.text.write(b);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                ZoneLog log = current.get();
+                if (log == null) {
+                    console.write(b, off, len);
+                } else {
+                    log.text.write(b, off, len);
+                }
+            }
+        }, true);
+    }
+
+    /**
+     * Step every zone for this tick.
+     *
+     * @throws ExcessiveDeliveryException if a robot delivers too much, from the lowest zone this happened in
+     * @throws ItemTooHeavyException if an item is too heavy, from the lowest zone this happened in
+     */
+    public void step() throws ExcessiveDeliveryException, ItemTooHeavyException
+    {
+        pool.rebalance();
+        System.setOut(capture);
+        capturing = true;
+        try {
+            if (executor == null) {
+                for (int z = 0; z < logs.length; z++) {
+                    failures[z] = stepZone(z);
+                }
+            } else {
+                List<Future<Throwable>> results = executor.invokeAll(tasks);
+                for (int z = 0; z < logs.length; z++) {
+                    failures[z] = results.get(z).get();
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Unable to step the zones", e);
+        } finally {
+            capturing = false;
+            System.setOut(console);
+        }
+        for (int z = 0; z < logs.length; z++) {
+            replay(logs[z]);
+            if (failures[z] instanceof ExcessiveDeliveryException) {
+                throw (ExcessiveDeliveryException) failures[z];
+            } else if (failures[z] instanceof ItemTooHeavyException) {
+                throw (ItemTooHeavyException) failures[z];
+            }
+        }
+    }
+
+    /**
+     * Step one zone's pool and robots on this thread.
+     *
+     * @return the exception that stopped the zone, or null
+     */
+    private Throwable stepZone(int zone)
+    {
+        current.set(logs[zone]);
+        try {
+            pool.getZone(zone).step();
+            List<Robot> robots = pool.getRobots(zone);
+            for (int i = 0; i < robots.size(); i++) {
+                robots.get(i).step();
+            }
+            return null;
+        } catch (ExcessiveDeliveryException | ItemTooHeavyException e) {
+            return e;
+        } finally {
+            System.out.flush();
+            logs[zone].endText();
+            // set rather than removed, so the thread keeps its entry for the next tick
+            current.set(null);
+        }
+    }
+
+    private static void replay(ZoneLog log)
+    {
+        for (int k = 0; k < log.size; k++) {
+            Entry entry = log.entries.get(k);
+            if (entry.text != null) {
+                System.out.write(entry.text, 0, entry.text.length);
+            } else if (entry.delivery != null) {
+                entry.delivery.deliver(entry.mailItem, entry.robot);
+            } else if (entry.archived) {
+                RunArchive.replay(entry.type, entry.robot, entry.mailItem, entry.a, entry.b, entry.c);
+            } else {
+                Fingerprint.replay(entry.type, entry.a, entry.b, entry.c);
+            }
+            entry.clear();
+        }
+        System.out.flush();
+        log.size = 0;
+    }
+
+    /**
+     * Log a delivery made by a zone's thread, to be made when the zones are replayed.
+     *
+     * @return true if it was logged, false if it should be made now
+     */
+    static boolean deferDelivery(IMailDelivery delivery, MailItem mailItem, Robot robot)
+    {
+        ZoneLog log = capturing ? current.get() : null;
+        if (log == null) {
+            return false;
+        }
+        System.out.flush();
+        log.endText();
+        Entry entry = log.add();
+        entry.delivery = delivery;
+        entry.mailItem = mailItem;
+        entry.robot = robot;
+        return true;
+    }
+
+    /**
+     * Log a fingerprint event made by a zone's thread, to be mixed when the zones are replayed.
+     *
+     * @return true if it was logged, false if it should be mixed now
+     */
+    static boolean deferFingerprint(int type, int a, int b, int c)
+    {
+        ZoneLog log = capturing ? current.get() : null;
+        if (log == null) {
+            return false;
+        }
+        System.out.flush();
+        log.endText();
+        Entry entry = log.add();
+        entry.type = type;
+        entry.a = a;
+        entry.b = b;
+        entry.c = c;
+        return true;
+    }
+
+    /**
+     * Log an event for the run archive made by a zone's thread, to be written when the zones are replayed.
+     *
+     * @return true if it was logged, false if it should be written now
+     */
+    static boolean deferArchive(int type, Robot robot, MailItem mailItem, int code, int a, int b)
+    {
+        ZoneLog log = capturing ? current.get() : null;
+        if (log == null) {
+            return false;
+        }
+        System.out.flush();
+        log.endText();
+        Entry entry = log.add();
+        entry.archived = true;
+        entry.type = type;
+        entry.robot = robot;
+        entry.mailItem = mailItem;
+        entry.a = code;
+        entry.b = a;
+        entry.c = b;
+        return true;
+    }
+
+    /**
+     * Stop the zone threads.
+     */
+    public void close()
+    {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+}
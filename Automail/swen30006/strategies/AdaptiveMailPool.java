@@ -0,0 +1,119 @@
+package strategies;
+
+import java.io.IOException;
+
+import automail.Checkpoint;
+import automail.Clock;
+import automail.Simulation;
+import exceptions.ItemTooHeavyException;
+
+/**
+ * The Class AdaptiveMailPool.
+ *
+ * @author Group W13-5
+ * @Description: AdaptiveMailPool is a MailPool that changes its order with the load. Before loading robots each tick
+ *               it looks at the pool depth, the longest wait of priority and normal items and the number of waiting
+ *               robots. Under light load it keeps the MailPool order (PRIORITY_FIRST). When the backlog builds up it
+ *               batches by floor so more trips carry two items, and when any item has waited too long it serves the
+ *               longest waits first (AGE_WEIGHTED). It only goes back to PRIORITY_FIRST once the backlog has drained
+ *               below the low water mark, and never changes order twice within the minimum dwell time.
+ */
+public class AdaptiveMailPool extends MailPool
+{
+    /** The pool depth, per robot, at which the backlog is batched by floor. */
+    private final int highWater;
+
+    /** The pool depth, per robot, below which the MailPool order is restored. */
+    private final int lowWater;
+
+    /** The longest wait, in ticks, before the longest waits are served first. */
+    private final int ageLimit;
+
+    /** The fewest ticks between two changes of order. */
+    private final int minDwell;
+
+    private final int nrobots;
+
+    private int lastSwitch = 0;
+
+    /**
+     * Instantiates an AdaptiveMailPool.
+     *
+     * @param nrobots the number of robots
+     * @param highWater the pool depth per robot at which to batch by floor
+     * @param lowWater the pool depth per robot below which to go back to priority first
+     * @param ageLimit the longest wait before serving the longest waits first
+     * @param minDwell the fewest ticks between two changes of order
+     */
+    public AdaptiveMailPool(int nrobots, int highWater, int lowWater, int ageLimit, int minDwell)
+    {
+        super(nrobots);
+        this.nrobots = nrobots;
+        this.highWater = highWater;
+        this.lowWater = lowWater;
+        this.ageLimit = ageLimit;
+        this.minDwell = minDwell;
+    }
+
+    /**
+     * {@inheritDoc} Choose the order for this tick first.
+     */
+    @Override
+    public void step() throws ItemTooHeavyException
+    {
+        Ordering next = choose();
+        if (next != getOrdering() && Clock.Time() - lastSwitch >= minDwell) {
+            lastSwitch = Clock.Time();
+            setOrdering(next);
+            if (!Simulation.isQuiet()) {
+                System.out.printf("T: %3d > Pool order: %s (pool %d, waiting robots %d)%n", Clock.Time(), next,
+                    getPoolSize(), getWaitingRobots());
+            }
+        } else if (getOrdering() == Ordering.AGE_WEIGHTED) {
+            setOrdering(Ordering.AGE_WEIGHTED);
+        }
+        super.step();
+    }
+
+    /**
+     * @return the order the current backlog calls for, with hysteresis between the water marks
+     */
+    private Ordering choose()
+    {
+        int depth = getPoolSize();
+        int oldest = Math.max(getOldestWait(true), getOldestWait(false));
+        Ordering current = getOrdering();
+        if (oldest > ageLimit) {
+            return Ordering.AGE_WEIGHTED;
+        }
+        if (depth <= Math.max(lowWater * nrobots, getWaitingRobots()) && 2 * oldest <= ageLimit) {
+            // everything can leave soon, so the plain order scores best
+            return Ordering.PRIORITY_FIRST;
+        }
+        if (depth >= highWater * nrobots && current == Ordering.PRIORITY_FIRST) {
+            return Ordering.FLOOR_BATCHING;
+        }
+        return current;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeState(Checkpoint checkpoint) throws IOException
+    {
+        super.writeState(checkpoint);
+        checkpoint.getOutput().writeInt(lastSwitch);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readState(Checkpoint checkpoint) throws IOException
+    {
+        super.readState(checkpoint);
+        lastSwitch = checkpoint.getInput().readInt();
+    }
+
+}
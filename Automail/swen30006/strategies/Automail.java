@@ -19,5 +19,11 @@ public class Automail {
     	robots = new Robot[numRobots];
     	for (int i = 0; i < numRobots; i++) robots[i] = new Robot(delivery, mailPool);
     }
+
+    public Automail(IMailPool mailPool, Robot[] robots) {
+    	/** Use robots that already exist, e.g. restored from a checkpoint */
+    	this.mailPool = mailPool;
+    	this.robots = robots;
+    }
     
 }
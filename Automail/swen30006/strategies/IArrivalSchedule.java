@@ -0,0 +1,19 @@
+package strategies;
+
+import java.util.List;
+
+import automail.MailItem;
+
+/**
+ * An arrival schedule lets a mail pool look ahead at the mail items that will arrive in the next few ticks. It can be
+ * the pre-computed arrivals of the generator, or a predictor when arrivals are streamed.
+ */
+public interface IArrivalSchedule {
+
+	/**
+	 * @param time the tick to look at
+	 * @return the mail items expected to arrive at that tick, empty if none
+	 */
+	List<MailItem> arrivalsAt(int time);
+
+}
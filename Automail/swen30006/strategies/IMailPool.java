@@ -1,5 +1,10 @@
 package strategies;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+import automail.Checkpoint;
 import automail.MailItem;
 import automail.Robot;
 import exceptions.ItemTooHeavyException;
@@ -28,4 +33,32 @@ public interface IMailPool {
      */	
 	void registerWaiting(Robot robot);
 
+	/**
+	 * @return the number of items waiting in the pool
+	 */
+	int getPoolSize();
+
+	/**
+	 * @return the items held in memory, in the order robots will be loaded with them, for estimates
+	 */
+	List<MailItem> getQueued();
+
+	/**
+	 * Prints the pool, the waiting robots and any strategy state, for diagnostics.
+	 * @param out where to print
+	 */
+	void printState(PrintStream out);
+
+	/**
+	 * Saves the pooled items, waiting robots and any strategy state into a checkpoint.
+	 * @param checkpoint the checkpoint being saved
+	 */
+	void writeState(Checkpoint checkpoint) throws IOException;
+
+	/**
+	 * Restores the state saved by writeState into this (empty) mail pool.
+	 * @param checkpoint the checkpoint being loaded
+	 */
+	void readState(Checkpoint checkpoint) throws IOException;
+
 }
@@ -0,0 +1,163 @@
+package strategies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import automail.MailItem;
+import automail.Robot;
+
+/**
+ * The Class LoadPlan.
+ *
+ * @author Group W13-5
+ * @Description: LoadPlan holds the loads a MailPool has worked out ahead for its returning robots, in the order they
+ *               will reach the mailroom. Each load is a segment at the head of the pool, the hand item then the tube
+ *               item if there is one, so a robot that arrives when planned takes its segment without any selection.
+ *               An item added or removed inside a segment, or just after it where it could have been the tube item,
+ *               drops that load and every load after it, and any change marks the plan to be made again.
+ */
+class LoadPlan
+{
+    /** The robot, hand item and tube item of each load, in order of arrival. */
+    private final ArrayList<Robot> robots = new ArrayList<Robot>();
+
+    private final ArrayList<MailItem> hands = new ArrayList<MailItem>();
+
+    private final ArrayList<MailItem> tubes = new ArrayList<MailItem>();
+
+    /** The position in the pool just after each load, when the plan was made. */
+    private int[] ends = new int[8];
+
+    /** The next load to be taken. */
+    private int next = 0;
+
+    /** The items taken from the head of the pool by the loads before the next one. */
+    private int taken = 0;
+
+    /** The loads taken and the arrivals that found no load for them, since the pool was created. */
+    private long hits = 0;
+
+    private long misses = 0;
+
+    /** True once the pool has changed since the plan was made. */
+    private boolean stale = true;
+
+    void clear()
+    {
+        truncate(0);
+        next = 0;
+        taken = 0;
+        stale = true;
+    }
+
+    /**
+     * Mark the plan as complete, until loads are dropped from it.
+     */
+    void built()
+    {
+        stale = false;
+    }
+
+    boolean isStale()
+    {
+        return stale;
+    }
+
+    /**
+     * Add the next load of the plan.
+     *
+     * @param robot the robot to load
+     * @param hand the item for its hand
+     * @param tube the item for its tube, or null
+     * @param end the position in the pool just after the load
+     */
+    void add(Robot robot, MailItem hand, MailItem tube, int end)
+    {
+        if (robots.size() == ends.length) {
+            ends = Arrays.copyOf(ends, 2 * ends.length);
+        }
+        ends[robots.size()] = end;
+        robots.add(robot);
+        hands.add(hand);
+        tubes.add(tube);
+    }
+
+    /**
+     * @param robot a robot that has reached the mailroom
+     * @return true if the next load is for the robot, otherwise the plan has to be made again
+     */
+    boolean isNext(Robot robot)
+    {
+        if (next < robots.size() && robots.get(next) == robot) {
+            hits++;
+            return true;
+        }
+        misses++;
+        return false;
+    }
+
+    MailItem hand()
+    {
+        return hands.get(next);
+    }
+
+    MailItem tube()
+    {
+        return tubes.get(next);
+    }
+
+    /**
+     * Move on to the next load once this one has been taken from the head of the pool.
+     */
+    void take()
+    {
+        taken = ends[next];
+        next++;
+    }
+
+    /**
+     * Drop the loads that depend on a position of the pool that changed.
+     *
+     * @param index the position an item was added at or removed from
+     */
+    void invalidateFrom(int index)
+    {
+        // an item past the last load may be one a robot the plan stopped short of could take
+        stale = true;
+        for (int j = next; j < robots.size(); j++) {
+            if (index <= ends[j] - taken) {
+                truncate(j);
+                return;
+            }
+        }
+    }
+
+    private void truncate(int size)
+    {
+        // from the end, so no sublist is made
+        for (int j = robots.size() - 1; j >= size; j--) {
+            robots.remove(j);
+            hands.remove(j);
+            tubes.remove(j);
+        }
+    }
+
+    /**
+     * @return the loads still to be taken
+     */
+    int size()
+    {
+        return robots.size() - next;
+    }
+
+    long getHits()
+    {
+        return hits;
+    }
+
+    long getMisses()
+    {
+        return misses;
+    }
+
+}
@@ -1,16 +1,28 @@
 
 package strategies;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import automail.Building;
+import automail.Checkpoint;
+import automail.Clock;
 import automail.GroupRobot;
 import automail.MailItem;
 import automail.PriorityMailItem;
 import automail.Robot;
+import automail.SimulationEvents;
 import exceptions.ItemTooHeavyException;
 
 /**
@@ -23,63 +35,506 @@ import exceptions.ItemTooHeavyException;
 public class MailPool implements IMailPool
 {
 
-    private class Item
+    /** The order the pool is kept in. */
+    public enum Ordering
     {
-        int priority;
-
-        int destination;
-
-        MailItem mailItem;
-        // Use stable sort to keep arrival time relative positions
+        /** Higher priority first, then higher floors first. */
+        PRIORITY_FIRST,
+        /** Higher floors first, then higher priority first, so hand and tube items share a trip. */
+        FLOOR_BATCHING,
+        /** The longest waiting first, each item's wait weighted by its score multiplier. */
+        AGE_WEIGHTED
+    }
 
-        public Item(MailItem mailItem)
-        {
-            priority = (mailItem instanceof PriorityMailItem) ? ((PriorityMailItem) mailItem).getPriorityLevel() : 1;
-            destination = mailItem.getDestFloor();
-            this.mailItem = mailItem;
-        }
+    /** Which items a group being formed gives way to, its robots being released to carry them. */
+    public enum GroupYield
+    {
+        /** Any item that reaches the head of the pool before the group. */
+        ANY,
+        /** Only priority items, otherwise the group's item is kept at the head. */
+        PRIORITY,
+        /** None, a group is always completed. */
+        NEVER
     }
 
-    public class ItemComparator implements Comparator<Item>
+    public class ItemComparator implements Comparator<MailItem>
     {
         @Override
-        public int compare(Item i1, Item i2)
+        public int compare(MailItem i1, MailItem i2)
         {
             int order = 0;
-            if (i1.priority < i2.priority) {
+            if (priority(i1) < priority(i2)) {
                 order = 1;
-            } else if (i1.priority > i2.priority) {
-                order = -1;
-            } else if (i1.destination < i2.destination) {
-                order = 1;
-            } else if (i1.destination > i2.destination) {
+            } else if (priority(i1) > priority(i2)) {
                 order = -1;
+            } else if (i1.getDestFloor() < i2.getDestFloor()) {
+                order = lowFloorsFirst ? -1 : 1;
+            } else if (i1.getDestFloor() > i2.getDestFloor()) {
+                order = lowFloorsFirst ? 1 : -1;
             }
             return order;
         }
     }
 
-    private LinkedList<Item> pool;
+    private class FloorComparator implements Comparator<MailItem>
+    {
+        @Override
+        public int compare(MailItem i1, MailItem i2)
+        {
+            if (i1.getDestFloor() != i2.getDestFloor()) {
+                return i2.getDestFloor() - i1.getDestFloor();
+            }
+            return priority(i2) - priority(i1);
+        }
+    }
+
+    private class AgeComparator implements Comparator<MailItem>
+    {
+        @Override
+        public int compare(MailItem i1, MailItem i2)
+        {
+            return Double.compare(urgency(i2), urgency(i1));
+        }
 
-    private LinkedList<Robot> robots;
+        /** The wait so far plus the trip up, weighted by the score multiplier. */
+        private double urgency(MailItem item)
+        {
+            int wait = Clock.Time() - item.getArrivalTime() + item.getDestFloor() - Building.MAILROOM_LOCATION;
+            return scoreWeight(item) * wait;
+        }
+    }
+
+    /** The priority level an item is sorted by, 1 for an ordinary item. */
+    private static int priority(MailItem mailItem)
+    {
+        return (mailItem instanceof PriorityMailItem) ? ((PriorityMailItem) mailItem).getPriorityLevel() : 1;
+    }
+
+    /** The items in order, an array list so adding, loading and stepping allocate nothing once it has grown. */
+    private ArrayList<MailItem> pool;
+
+    private ArrayList<Robot> robots;
 
     private GroupRobot groupRobot;
 
+    /** The group last formed, started again for the next heavy item once it has been dispatched or dissolved. */
+    private GroupRobot lastGroup = null;
+
     private ArrayList<Robot> availableRobots = null;
 
+    /** The robots of the last dissolved group, copied as the group will be started again. */
+    private final ArrayList<Robot> released = new ArrayList<Robot>();
+
+    private Ordering ordering = Ordering.PRIORITY_FIRST;
+
+    /** One comparator for each ordering, made once. */
+    private final Comparator<MailItem> priorityFirst = new ItemComparator();
+
+    private final Comparator<MailItem> floorBatching = new FloorComparator();
+
+    private final Comparator<MailItem> ageWeighted = new AgeComparator();
+
+    /** False if the pool may be out of order, so the next item added sorts it again instead of being inserted. */
+    private boolean sorted = true;
+
+    /** The most items kept in memory at the head of the pool, the rest are spilled (0 keeps everything in memory). */
+    private int hotCapacity = 0;
+
+    private MailSpill spill = null;
+
+    /** The arrivals to look ahead at, null if loaded robots are always dispatched straight away. */
+    private IArrivalSchedule arrivals = null;
+
+    /** The most ticks a loaded robot with an empty tube may be held for an imminent arrival. */
+    private int holdTicks = 0;
+
+    /** The robots held with an empty tube, and the last tick each may be held until. */
+    private LinkedHashMap<Robot, Integer> heldRobots = new LinkedHashMap<Robot, Integer>();
+
+    /** The most robots kept back for priority mail, 0 for no priority lane. */
+    private int laneMax = 0;
+
+    /** The robots of the fleet, the reserve always leaves at least one for the rest. */
+    private int fleet = 0;
+
+    /** The priority arrivals, and the sum of their floors, at each of the last ticks, indexed by tick. */
+    private int[] laneArrivals = new int[0];
+
+    private long[] laneFloors = new long[0];
+
+    private int laneCount = 0;
+
+    private long laneFloorSum = 0;
+
+    /** The priority arrivals of this tick, added to the window when the pool steps. */
+    private int tickArrivals = 0;
+
+    private long tickFloors = 0;
+
+    /** The robots kept back for priority mail this tick. */
+    private int reserve = 0;
+
+    /** The floors above a group's floor its members may go on to with a tube item, -1 to leave their tubes empty. */
+    private int groupTubeReach = -1;
+
+    /** Items lighter than this go in a tube, at most the weight a tube can hold. */
+    private int tubeFillWeight = Robot.INDIVIDUAL_MAX_WEIGHT;
+
+    /** Break ties of priority with the lower floor first in PRIORITY_FIRST order, instead of the higher. */
+    private boolean lowFloorsFirst = false;
+
+    private GroupYield groupYield = GroupYield.ANY;
+
+    /** The loads worked out for the returning robots, null to select each load as a robot arrives. */
+    private LoadPlan plan = null;
+
+    /** The robots whose returns are planned for, and the number returning when the plan was made. */
+    private List<Robot> fleetRobots = null;
+
+    private int plannedReturning = -1;
+
+    /** The returning robots in order of arrival, and the ticks until each arrives, reused for every plan. */
+    private final ArrayList<Robot> arriving = new ArrayList<Robot>();
+
+    private int[] arrivalTicks = new int[0];
+
     public MailPool(int nrobots)
     {
         // Start empty
-        pool = new LinkedList<Item>();
-        robots = new LinkedList<Robot>();
+        pool = new ArrayList<MailItem>();
+        robots = new ArrayList<Robot>();
+    }
+
+    /**
+     * Instantiates a MailPool that keeps only the head of the pool in memory.
+     *
+     * @param nrobots the number of robots
+     * @param hotCapacity the most items kept in memory, at least 2 so the hand and tube items are always in memory
+     * @throws IOException if the spill file cannot be created
+     */
+    public MailPool(int nrobots, int hotCapacity) throws IOException
+    {
+        this(nrobots);
+        if (hotCapacity > 0) {
+            this.hotCapacity = Math.max(hotCapacity, 2);
+            spill = new MailSpill();
+        }
+    }
+
+    /**
+     * Release the spill file of the pool, once the run is over.
+     *
+     * @throws IOException if the spill file cannot be closed
+     */
+    public void close() throws IOException
+    {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
     }
 
     @Override
     public void addToPool(MailItem mailItem)
     {
-        Item item = new Item(mailItem);
-        pool.add(item);
-        pool.sort(new ItemComparator());
+        if (laneMax > 0 && mailItem instanceof PriorityMailItem && mailItem.getArrivalTime() == Clock.Time()) {
+            // only new arrivals count, not items brought back in a tube
+            tickArrivals++;
+            tickFloors += mailItem.getDestFloor();
+        }
+        if (spill == null || (pool.size() < hotCapacity && spill.isEmpty())) {
+            insert(mailItem);
+            return;
+        }
+        try {
+            if (!pool.isEmpty() && comparator().compare(mailItem, pool.get(pool.size() - 1)) < 0) {
+                // ranks inside the head, push the last item of the head out instead
+                insert(mailItem);
+                if (pool.size() > hotCapacity) {
+                    spill.pushFront(pool.remove(pool.size() - 1));
+                    if (plan != null) {
+                        plan.invalidateFrom(pool.size());
+                    }
+                }
+            } else {
+                spill.pushBack(mailItem);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fillHead();
+    }
+
+    /**
+     * Add an item where a stable sort would put it, after the items it ties with, keeping arrival time relative
+     * positions. A binary search only works on a pool in order; otherwise, and in AGE_WEIGHTED order where the waits
+     * keep growing, the whole pool is sorted again.
+     */
+    private void insert(MailItem mailItem)
+    {
+        Comparator<MailItem> comparator = comparator();
+        if (!sorted || ordering == Ordering.AGE_WEIGHTED) {
+            pool.add(mailItem);
+            pool.sort(comparator);
+            sorted = true;
+            if (plan != null) {
+                plan.clear();
+            }
+            return;
+        }
+        int low = 0;
+        int high = pool.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(mailItem, pool.get(mid)) < 0) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        pool.add(low, mailItem);
+        if (plan != null) {
+            plan.invalidateFrom(low);
+        }
+    }
+
+    private Comparator<MailItem> comparator()
+    {
+        switch (ordering) {
+        case FLOOR_BATCHING:
+            return floorBatching;
+        case AGE_WEIGHTED:
+            return ageWeighted;
+        default:
+            return priorityFirst;
+        }
+    }
+
+    /**
+     * Change the order of the pool and sort it again. Waits keep growing, so AGE_WEIGHTED needs sorting every tick.
+     * The item a group is being formed for stays at the head.
+     *
+     * @param ordering the new order
+     */
+    public void setOrdering(Ordering ordering)
+    {
+        if (spill != null && ordering != Ordering.PRIORITY_FIRST) {
+            throw new IllegalStateException("A spilled pool can only be kept in PRIORITY_FIRST order");
+        }
+        this.ordering = ordering;
+        pool.sort(comparator());
+        sorted = true;
+        if (plan != null) {
+            plan.clear();
+        }
+        if (groupRobot != null) {
+            // keep the item a group is being formed for at the head, or the group would be broken up
+            moveToHead(groupRobot.getMailItem());
+        }
+    }
+
+    public Ordering getOrdering()
+    {
+        return ordering;
+    }
+
+    /**
+     * {@inheritDoc} Spilled items are included.
+     */
+    @Override
+    public int getPoolSize()
+    {
+        return pool.size() + ((spill == null) ? 0 : spill.size());
+    }
+
+    /**
+     * {@inheritDoc} Spilled items are not included.
+     */
+    @Override
+    public List<MailItem> getQueued()
+    {
+        return Collections.unmodifiableList(pool);
+    }
+
+    /**
+     * @return the number of robots waiting at the mailroom to be loaded
+     */
+    public int getWaitingRobots()
+    {
+        return robots.size();
+    }
+
+    /**
+     * Take the robot that has waited longest out of the pool, so it can be sent to serve another pool.
+     *
+     * @return the robot, or null if no robot is waiting
+     */
+    public Robot takeWaiting()
+    {
+        return robots.isEmpty() ? null : robots.remove(0);
+    }
+
+    /**
+     * @param priority true for priority items, false for the others
+     * @return the longest time an item of that kind has waited in the pool, 0 if there are none
+     */
+    public int getOldestWait(boolean priority)
+    {
+        int oldest = Clock.Time();
+        for (int k = 0; k < pool.size(); k++) {
+            MailItem mailItem = pool.get(k);
+            if ((mailItem instanceof PriorityMailItem) == priority) {
+                oldest = Math.min(oldest, mailItem.getArrivalTime());
+            }
+        }
+        return Clock.Time() - oldest;
+    }
+
+    /**
+     * Let a robot that would leave with an empty tube wait for an item that is about to arrive.
+     *
+     * @param arrivals the arrivals to look ahead at
+     * @param holdTicks the most ticks a robot may be held
+     */
+    public void setDispatchHold(IArrivalSchedule arrivals, int holdTicks)
+    {
+        this.arrivals = arrivals;
+        this.holdTicks = holdTicks;
+    }
+
+    /**
+     * Let every robot of a group carry a tube item, not only the one that completes it. After the group drops its item
+     * each member goes on to its own tube floor. A floor at or below the group's floor is on the way back and costs no
+     * extra travel, a floor above it costs twice the climb.
+     *
+     * @param reach the most floors above the group's floor a tube item may be for
+     */
+    public void setGroupTubeReach(int reach)
+    {
+        this.groupTubeReach = reach;
+    }
+
+    /**
+     * Set the tunables of the loading strategy, before any mail is added.
+     *
+     * @param tubeFillWeight items lighter than this go in a tube, from 0 for never to INDIVIDUAL_MAX_WEIGHT
+     * @param lowFloorsFirst true to break ties of priority with the lower floor first
+     * @param groupYield the items a group being formed gives way to, only ANY if the pool spills as the group's item
+     *            may be spilled and cannot be kept at the head
+     */
+    public void setTunables(int tubeFillWeight, boolean lowFloorsFirst, GroupYield groupYield)
+    {
+        if (tubeFillWeight < 0 || tubeFillWeight > Robot.INDIVIDUAL_MAX_WEIGHT) {
+            throw new IllegalArgumentException("The tube fill weight must be from 0 to " + Robot.INDIVIDUAL_MAX_WEIGHT);
+        }
+        if (spill != null && groupYield != GroupYield.ANY) {
+            throw new IllegalStateException("A spilled pool can only form groups that yield to ANY item");
+        }
+        this.tubeFillWeight = tubeFillWeight;
+        this.lowFloorsFirst = lowFloorsFirst;
+        this.groupYield = groupYield;
+        if (spill != null) {
+            spill.setLowFloorsFirst(lowFloorsFirst);
+        }
+    }
+
+    /**
+     * @return the weight items must be lighter than to go in a tube
+     */
+    public int getTubeFillWeight()
+    {
+        return tubeFillWeight;
+    }
+
+    /**
+     * Work out the load of each returning robot ahead of its arrival, so it takes its hand and tube items from the head
+     * of the pool without any selection when it arrives.
+     *
+     * @param fleet the robots that return to this pool, a live list if robots move between pools
+     */
+    public void setLoadPlanning(List<Robot> fleet)
+    {
+        this.fleetRobots = fleet;
+        plan = new LoadPlan();
+        arrivalTicks = new int[fleet.size()];
+    }
+
+    /**
+     * Keep a reserve of waiting robots for priority mail, sized from the priority arrivals of the last ticks so it is
+     * released when no priority mail has arrived for a while. The reserve is only kept back from light ordinary
+     * mail, so a group is never short of the robots it needs.
+     *
+     * @param laneMax the most robots to keep back
+     * @param window the ticks the priority arrival rate is measured over
+     * @param fleet the number of robots
+     */
+    public void setPriorityLane(int laneMax, int window, int fleet)
+    {
+        this.laneMax = laneMax;
+        this.fleet = fleet;
+        laneArrivals = new int[window];
+        laneFloors = new long[window];
+    }
+
+    /**
+     * @return the robots kept back for priority mail this tick
+     */
+    public int getReserve()
+    {
+        return reserve;
+    }
+
+    /**
+     * Move the window of priority arrivals on to this tick and size the reserve from it. By Little's law the robots
+     * busy with priority mail are its arrival rate times the round trip to its mean floor.
+     */
+    private void updateReserve()
+    {
+        int slot = Clock.Time() % laneArrivals.length;
+        laneCount += tickArrivals - laneArrivals[slot];
+        laneFloorSum += tickFloors - laneFloors[slot];
+        laneArrivals[slot] = tickArrivals;
+        laneFloors[slot] = tickFloors;
+        tickArrivals = 0;
+        tickFloors = 0;
+        if (laneCount == 0) {
+            reserve = 0;
+            return;
+        }
+        double trip = 2 * ((double) laneFloorSum / laneCount - Building.MAILROOM_LOCATION);
+        double busy = Math.ceil(laneCount * trip / laneArrivals.length);
+        reserve = (int) Math.min(busy, Math.min(laneMax, fleet - 1));
+    }
+
+    /**
+     * @param waiting the robots still waiting to be loaded this tick
+     * @return true if they are only the reserve and the head of the pool is light ordinary mail
+     */
+    private boolean keepForPriority(int waiting)
+    {
+        if (waiting > reserve) {
+            return false;
+        }
+        fillHead();
+        if (pool.isEmpty()) {
+            return false;
+        }
+        MailItem head = pool.get(0);
+        return !(head instanceof PriorityMailItem) && head.getWeight() <= Robot.INDIVIDUAL_MAX_WEIGHT;
+    }
+
+    /**
+     * Page spilled items back into the head of the pool as it drains. Every spilled item ranks after the head, so
+     * they are added at the end.
+     */
+    private void fillHead()
+    {
+        while (spill != null && pool.size() < hotCapacity && !spill.isEmpty()) {
+            if (plan != null) {
+                plan.invalidateFrom(pool.size());
+            }
+            pool.add(spill.popFront());
+        }
     }
 
     /**
@@ -91,17 +546,32 @@ public class MailPool implements IMailPool
     public void step() throws ItemTooHeavyException
     {
         try {
-            ListIterator<Robot> i = robots.listIterator();
-            // continues to load until there are no more free robots
-            while (i.hasNext())
-                loadRobot(i);
+            releaseHeldRobots();
+            if (laneMax > 0) {
+                updateReserve();
+            }
+            // continues to load until there are no more free robots, by index so no iterator is made every tick
+            int i = 0;
+            while (i < robots.size()) {
+                if (reserve > 0 && keepForPriority(robots.size() - i)) {
+                    break;
+                }
+                if (loadRobot(robots.get(i))) {
+                    robots.remove(i);
+                } else {
+                    i++;
+                }
+            }
             while (availableRobots != null) {
-                for (Robot r : availableRobots) {
-                    registerWaiting(r);
+                for (int k = 0; k < availableRobots.size(); k++) {
+                    registerWaiting(availableRobots.get(k));
                 }
                 availableRobots = null;
 
             }
+            if (plan != null) {
+                planLoads();
+            }
 
         } catch (Exception e) {
             throw e;
@@ -111,35 +581,48 @@ public class MailPool implements IMailPool
     /**
      * Load robots to delivering mailItems that are in the mailpool.
      * 
-     * @param Iterate each robot in the list
+     * @param robot the waiting robot
+     * @return true if the robot was loaded, or joined a group, and no longer waits to be loaded
      * @throws ItemTooHeavyException if the weight of mailItem exceed the maxmium weight that group robots can carry
      */
-    public void loadRobot(ListIterator<Robot> i) throws ItemTooHeavyException
+    public boolean loadRobot(Robot robot) throws ItemTooHeavyException
     {
-        Robot robot = i.next();
         assert (robot.isEmpty());
+        fillHead();
+        Object load = SimulationEvents.beginLoad(robot);
+        if (plan != null && !pool.isEmpty()) {
+            if (plan.isNext(robot)) {
+                return loadPlanned(robot, load);
+            }
+            // arrived out of turn, so the loads planned after it may not be at the head any more
+            plan.clear();
+        }
 
         // the current item that need to be deal with
         MailItem currentPackage;
+        // the item in the robot's hand
+        MailItem handPackage;
         // the flag to check if the item can be delivered
         boolean itemDelivered = false;
 
         // System.out.printf("P: %3d%n", pool.size());
-        ListIterator<Item> j = pool.listIterator();
-
         if (pool.size() > 0) {
             try {
-                currentPackage = j.next().mailItem;
+                currentPackage = pool.get(0);
+                handPackage = currentPackage;
 
                 // if the priority item exist, deal with it first
                 dealPriority(currentPackage);
+                // the group's item may have been moved back to the head
+                currentPackage = pool.get(0);
+                handPackage = currentPackage;
 
                 // hand first as we want higher priority delivered first
                 robot.addToHand(currentPackage);
 
                 // if the weight of item is smaller than INDIVIDUAL_MAX_WEIGHT, robot just carry it
                 if (currentPackage.getWeight() <= Robot.INDIVIDUAL_MAX_WEIGHT) {
-                    j.remove();
+                    pool.remove(0);
                     itemDelivered = true;
                     // System.out.println("item " + currentPackage.getId() + ": carried by 1 robot " + robot.getID());
 
@@ -149,7 +632,7 @@ public class MailPool implements IMailPool
                     // add the robot to the group to carry it
                     addRobots(robot, currentPackage);
                     if (groupRobot.NumberOfRobots() == 2) {
-                        j.remove();
+                        pool.remove(0);
                         itemDelivered = true;
                         // System.out.println(
                         // "item " + currentPackage.getId() + ": carried by 2 robot " + groupRobot.toString());
@@ -159,37 +642,210 @@ public class MailPool implements IMailPool
                     // same as the above
                     addRobots(robot, currentPackage);
                     if (groupRobot.NumberOfRobots() == 3) {
-                        j.remove();
+                        pool.remove(0);
                         itemDelivered = true;
                         // System.out.println(
                         // "item " + currentPackage.getId() + ": carried by 3 robot " + groupRobot.toString());
                     }
                 } else {
+                    SimulationEvents.failure("ItemTooHeavyException", robot, currentPackage);
                     throw new ItemTooHeavyException();
                 }
 
                 if (pool.size() > 0) {
                     // get the next new item for delivering
                     if (itemDelivered) {
-                        currentPackage = j.next().mailItem;
+                        currentPackage = pool.get(0);
                         // add new item to the tube if the robot can carry it individually
-                        if (currentPackage.getWeight() < Robot.INDIVIDUAL_MAX_WEIGHT) {
+                        if (currentPackage.getWeight() < tubeFillWeight) {
                             robot.addToTube(currentPackage);
-                            j.remove();
+                            pool.remove(0);
                             // System.out.println("put next item " + currentPackage.getId() + " in tube.");
                         }
                     }
                 }
 
-                // delivering mailItem
-                deliveryItem(robot, itemDelivered);
+                // hold the robot if an item it could also carry is about to arrive
+                int holdUntil = -1;
+                if (itemDelivered && groupRobot == null && robot.getTube() == null) {
+                    holdUntil = holdUntil(handPackage);
+                }
+                if (holdUntil > 0) {
+                    heldRobots.put(robot, holdUntil);
+                } else {
+                    // delivering mailItem
+                    deliveryItem(robot, itemDelivered);
+                }
 
-                i.remove(); // remove from mailPool queue
+                SimulationEvents.endLoad(load, handPackage, robot.getTube());
+                return true; // remove from mailPool queue
 
             } catch (Exception e) {
                 throw e;
             }
         }
+        return false;
+    }
+
+    /**
+     * Hand a robot the load planned for it, the segment at the head of the pool.
+     *
+     * @param robot the robot the next load is for
+     * @param load the load event
+     * @return true, the robot is always loaded
+     * @throws ItemTooHeavyException if the weight of mailItem exceed the maxmium weight the robot can carry
+     */
+    private boolean loadPlanned(Robot robot, Object load) throws ItemTooHeavyException
+    {
+        MailItem hand = plan.hand();
+        MailItem tube = plan.tube();
+        assert (pool.get(0) == hand && (tube == null || pool.get(1) == tube));
+        plan.take();
+        robot.addToHand(pool.remove(0));
+        if (tube != null) {
+            robot.addToTube(pool.remove(0));
+        }
+        int holdUntil = (tube == null) ? holdUntil(hand) : -1;
+        if (holdUntil > 0) {
+            heldRobots.put(robot, holdUntil);
+            // a held robot takes the next light item, which may belong to a planned load
+            plan.clear();
+        } else {
+            robot.dispatch();
+        }
+        SimulationEvents.endLoad(load, hand, tube);
+        return true;
+    }
+
+    /**
+     * Work out the loads of the robots on their way back, in the order they reach the mailroom, ties in fleet order as
+     * that is the order they register in. The plan is only made again when robots have started or finished returning,
+     * or loads were dropped. A robot waiting, held or in a group takes from the head of the pool first, so there is no
+     * plan while there is one. The plan stops at a heavy item, as a group is formed from the robots that actually
+     * arrive, and in AGE_WEIGHTED order, where the pool is sorted again on every arrival.
+     */
+    private void planLoads()
+    {
+        int returning = 0;
+        for (int r = 0; r < fleetRobots.size(); r++) {
+            if (fleetRobots.get(r).current_state == Robot.RobotState.RETURNING) {
+                returning++;
+            }
+        }
+        if (returning == plannedReturning && !plan.isStale()) {
+            return;
+        }
+        plan.clear();
+        plannedReturning = -1;
+        if (!robots.isEmpty() || !heldRobots.isEmpty() || groupRobot != null || ordering == Ordering.AGE_WEIGHTED) {
+            return;
+        }
+        if (arrivalTicks.length < fleetRobots.size()) {
+            arrivalTicks = new int[fleetRobots.size()];
+        }
+        arriving.clear();
+        for (int r = 0; r < fleetRobots.size(); r++) {
+            Robot robot = fleetRobots.get(r);
+            if (robot.current_state != Robot.RobotState.RETURNING) {
+                continue;
+            }
+            int ticks = ticksToMailroom(robot);
+            // insertion sort, after the robots arriving in the same tick
+            int k = arriving.size();
+            while (k > 0 && arrivalTicks[k - 1] > ticks) {
+                arrivalTicks[k] = arrivalTicks[k - 1];
+                k--;
+            }
+            arrivalTicks[k] = ticks;
+            arriving.add(k, robot);
+        }
+        int end = 0;
+        for (int r = 0; r < arriving.size() && end < pool.size(); r++) {
+            MailItem hand = pool.get(end);
+            if (hand.getWeight() > Robot.INDIVIDUAL_MAX_WEIGHT) {
+                break;
+            }
+            end++;
+            MailItem tube = null;
+            if (end < pool.size() && pool.get(end).getWeight() < tubeFillWeight) {
+                tube = pool.get(end++);
+            }
+            plan.add(arriving.get(r), hand, tube, end);
+        }
+        plan.built();
+        plannedReturning = returning;
+    }
+
+    /**
+     * @return the ticks until a returning robot registers at its mailroom, 0 if it registers this tick
+     */
+    private static int ticksToMailroom(Robot robot)
+    {
+        float floor = robot.getCurrentFloor();
+        int mailroom = robot.getMailroom();
+        if (floor > mailroom) {
+            return (int) Math.ceil(floor - mailroom);
+        }
+        // climbing to a zone mailroom
+        return (floor > mailroom - Robot.SINGLE_SPEED) ? 0 : (int) (mailroom - Robot.SINGLE_SPEED - floor) + 1;
+    }
+
+    /**
+     * Decide whether a robot carrying only the given item should wait. It waits for an arriving item that fits in the
+     * tube if the score cost of delaying the hand item is less than the round trip saved by carrying both. Sharing a
+     * trip saves twice the distance to the lower of the two floors, and each item is weighted by its score multiplier
+     * (1 + sqrt(priority)).
+     *
+     * @param hand the item in the robot's hand
+     * @return the tick to wait until, or -1 to leave now
+     */
+    private int holdUntil(MailItem hand)
+    {
+        if (arrivals == null) {
+            return -1;
+        }
+        double handWeight = scoreWeight(hand);
+        for (int t = Clock.Time() + 1; t <= Clock.Time() + holdTicks; t++) {
+            for (MailItem m : arrivals.arrivalsAt(t)) {
+                if (m.getWeight() < tubeFillWeight) {
+                    int saved = 2 * (Math.min(hand.getDestFloor(), m.getDestFloor()) - Building.MAILROOM_LOCATION);
+                    if ((t - Clock.Time()) * handWeight < saved * scoreWeight(m)) {
+                        return t;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private double scoreWeight(MailItem m)
+    {
+        return (m instanceof PriorityMailItem) ? 1 + Math.sqrt(((PriorityMailItem) m).getPriorityLevel()) : 1;
+    }
+
+    /**
+     * Fill the tube of each held robot once a light item is at the head of the pool, or send it off with an empty
+     * tube when it has waited long enough.
+     *
+     * @throws ItemTooHeavyException if the item is too heavy for the tube
+     */
+    private void releaseHeldRobots() throws ItemTooHeavyException
+    {
+        if (heldRobots.isEmpty()) {
+            return;
+        }
+        Iterator<Map.Entry<Robot, Integer>> h = heldRobots.entrySet().iterator();
+        while (h.hasNext()) {
+            Map.Entry<Robot, Integer> held = h.next();
+            fillHead();
+            if (!pool.isEmpty() && pool.get(0).getWeight() < tubeFillWeight) {
+                held.getKey().addToTube(pool.remove(0));
+            } else if (Clock.Time() < held.getValue()) {
+                continue;
+            }
+            held.getKey().dispatch();
+            h.remove();
+        }
     }
 
     /**
@@ -202,13 +858,43 @@ public class MailPool implements IMailPool
     {
         // if the priority item exist, deal with it first
         if ((groupRobot != null) && (m != groupRobot.getMailItem())) {
+            boolean yield = groupYield == GroupYield.ANY
+                || (groupYield == GroupYield.PRIORITY && m instanceof PriorityMailItem);
+            if (!yield && moveToHead(groupRobot.getMailItem())) {
+                return;
+            }
+            SimulationEvents.group("dissolve", groupRobot, groupRobot.getMailItem());
             groupRobot.carryPriority();
-            availableRobots = groupRobot.getRobots();
+            released.clear();
+            for (int k = 0; k < groupRobot.NumberOfRobots(); k++) {
+                released.add(groupRobot.getRobots().get(k));
+            }
+            availableRobots = released;
             groupRobot = null;
         }
 
     }
 
+    /**
+     * Move an item back to the head of the pool, out of order.
+     *
+     * @return false if the item is not in memory
+     */
+    private boolean moveToHead(MailItem m)
+    {
+        for (int k = 1; k < pool.size(); k++) {
+            if (pool.get(k) == m) {
+                pool.add(0, pool.remove(k));
+                sorted = false;
+                if (plan != null) {
+                    plan.clear();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Add robot into the group.
      *
@@ -221,12 +907,19 @@ public class MailPool implements IMailPool
         if ((groupRobot != null) && !groupRobot.foundRobot(r)) {
             groupRobot.addRobot(r);
             r.addToGroup();
+            SimulationEvents.group("join", groupRobot, m);
             // System.out.println("group robots include: " + groupRobot.toString() + " carry item " + m.getId());
         } else {
             // or create a new group robots to delivery the heavy item, add first robot into group
             r.setIsDelivering();
-            groupRobot = new GroupRobot(new ArrayList<Robot>(Arrays.asList(r)), m);
+            if (lastGroup == null) {
+                lastGroup = new GroupRobot(new ArrayList<Robot>(Arrays.asList(r)), m);
+            } else {
+                lastGroup.restart(r, m);
+            }
+            groupRobot = lastGroup;
             r.addToGroup();
+            SimulationEvents.group("form", groupRobot, m);
             // System.out.println("group robots include: " + groupRobot.toString() + ", carry item " + m.getId()
             // + ", but need more robots.");
         }
@@ -238,14 +931,20 @@ public class MailPool implements IMailPool
      *
      * @param robot the robot that need to deliver the item.
      * @param itemDelivered the flag to determine if the item can be delivered
+     * @throws ItemTooHeavyException if an item put in a group member's tube is too heavy for it
      */
-    public void deliveryItem(Robot robot, boolean itemDelivered)
+    public void deliveryItem(Robot robot, boolean itemDelivered) throws ItemTooHeavyException
     {
         // if enough robots to delivery heavy item, start delivering
         if ((groupRobot != null) && itemDelivered) {
-            for (Robot r : groupRobot.getRobots()) {
-                groupRobot = null;
-                r.dispatch();
+            SimulationEvents.group("dispatch", groupRobot, groupRobot.getMailItem());
+            ArrayList<Robot> group = groupRobot.getRobots();
+            if (groupTubeReach >= 0) {
+                fillGroupTubes(group, groupRobot.getMailItem().getDestFloor());
+            }
+            groupRobot = null;
+            for (int k = 0; k < group.size(); k++) {
+                group.get(k).dispatch();
             }
             // or if one robot is required to delivery the light item, start delivering
         } else if (groupRobot == null && itemDelivered) {
@@ -255,10 +954,179 @@ public class MailPool implements IMailPool
 
     }
 
+    /**
+     * Fill the empty tubes of a group about to leave, each with the first light item in pool order that is for a floor
+     * within reach of the group's floor. Only the items in memory are searched.
+     *
+     * @param group the robots of the group
+     * @param floor the floor the group is taking its item to
+     * @throws ItemTooHeavyException if an item is too heavy for the tube
+     */
+    private void fillGroupTubes(ArrayList<Robot> group, int floor) throws ItemTooHeavyException
+    {
+        int k = 0;
+        for (int r = 0; r < group.size(); r++) {
+            Robot member = group.get(r);
+            if (member.getTube() != null) {
+                continue;
+            }
+            while (k < pool.size() && (pool.get(k).getWeight() >= tubeFillWeight
+                || pool.get(k).getDestFloor() > floor + groupTubeReach)) {
+                k++;
+            }
+            if (k == pool.size()) {
+                return;
+            }
+            member.addToTube(pool.remove(k));
+        }
+    }
+
+    /**
+     * {@inheritDoc} The pool is printed in order, then the waiting robots and the group being formed.
+     */
+    @Override
+    public void printState(PrintStream out)
+    {
+        out.printf("  Pool: %d items (%d spilled), order %s%n", getPoolSize(), getPoolSize() - pool.size(), ordering);
+        for (MailItem mailItem : pool) {
+            out.println("    " + mailItem);
+        }
+        out.println("  Waiting robots: " + ids(robots));
+        if (groupRobot != null) {
+            out.println("  Group: " + ids(groupRobot.getRobots()) + "for [" + groupRobot.getMailItem() + "]");
+        }
+        if (availableRobots != null) {
+            out.println("  Released from a group: " + ids(availableRobots));
+        }
+        if (!heldRobots.isEmpty()) {
+            out.println("  Held: " + ids(heldRobots.keySet()));
+        }
+        if (laneMax > 0) {
+            out.printf("  Priority lane: reserve %d, %d priority arrivals in the last %d ticks%n", reserve, laneCount,
+                laneArrivals.length);
+        }
+        if (plan != null) {
+            out.printf("  Planned loads: %d (%d taken as planned, %d arrivals out of turn)%n", plan.size(),
+                plan.getHits(), plan.getMisses());
+        }
+    }
+
+    private static String ids(Iterable<Robot> list)
+    {
+        String n = "";
+        for (Robot r : list) {
+            n += r.getID() + " ";
+        }
+        return n;
+    }
+
     @Override
     public void registerWaiting(Robot robot)
     { // assumes won't be there already
         robots.add(robot);
     }
 
+    /**
+     * {@inheritDoc} The pool is saved in its sorted order, followed by the waiting robots and the group being formed.
+     */
+    @Override
+    public void writeState(Checkpoint checkpoint) throws IOException
+    {
+        DataOutputStream out = checkpoint.getOutput();
+        ArrayList<MailItem> spilled = (spill == null) ? new ArrayList<MailItem>() : spill.toList();
+        out.writeInt(pool.size() + spilled.size());
+        for (MailItem mailItem : pool) {
+            checkpoint.writeMail(mailItem);
+        }
+        for (MailItem mailItem : spilled) {
+            checkpoint.writeMail(mailItem);
+        }
+        writeRobots(checkpoint, robots);
+        out.writeBoolean(groupRobot != null);
+        if (groupRobot != null) {
+            checkpoint.writeMail(groupRobot.getMailItem());
+            writeRobots(checkpoint, groupRobot.getRobots());
+        }
+        out.writeBoolean(availableRobots != null);
+        if (availableRobots != null) {
+            writeRobots(checkpoint, availableRobots);
+        }
+        out.writeInt(heldRobots.size());
+        for (Map.Entry<Robot, Integer> held : heldRobots.entrySet()) {
+            checkpoint.writeRobot(held.getKey());
+            out.writeInt(held.getValue());
+        }
+        out.writeInt(ordering.ordinal());
+        out.writeInt(laneArrivals.length);
+        for (int k = 0; k < laneArrivals.length; k++) {
+            out.writeInt(laneArrivals[k]);
+            out.writeLong(laneFloors[k]);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readState(Checkpoint checkpoint) throws IOException
+    {
+        DataInputStream in = checkpoint.getInput();
+        int size = in.readInt();
+        for (int k = 0; k < size; k++) {
+            // already in order, so no need to sort again
+            MailItem mailItem = checkpoint.readMail();
+            if (spill == null || pool.size() < hotCapacity) {
+                pool.add(mailItem);
+            } else {
+                spill.pushBack(mailItem);
+            }
+        }
+        robots.addAll(readRobots(checkpoint));
+        if (in.readBoolean()) {
+            MailItem m = checkpoint.readMail();
+            groupRobot = new GroupRobot(readRobots(checkpoint), m);
+        }
+        if (in.readBoolean()) {
+            availableRobots = readRobots(checkpoint);
+        }
+        int held = in.readInt();
+        for (int k = 0; k < held; k++) {
+            Robot r = checkpoint.readRobot();
+            heldRobots.put(r, in.readInt());
+        }
+        ordering = Ordering.values()[in.readInt()];
+        // the priority arrivals are only kept if the window is the same length
+        int window = in.readInt();
+        for (int k = 0; k < window; k++) {
+            int count = in.readInt();
+            long floors = in.readLong();
+            if (window == laneArrivals.length) {
+                laneArrivals[k] = count;
+                laneFloors[k] = floors;
+                laneCount += count;
+                laneFloorSum += floors;
+            }
+        }
+        // the group item may have been kept at the head
+        sorted = false;
+    }
+
+    private void writeRobots(Checkpoint checkpoint, List<Robot> list) throws IOException
+    {
+        checkpoint.getOutput().writeInt(list.size());
+        for (Robot r : list) {
+            checkpoint.writeRobot(r);
+        }
+    }
+
+    private ArrayList<Robot> readRobots(Checkpoint checkpoint) throws IOException
+    {
+        int size = checkpoint.getInput().readInt();
+        ArrayList<Robot> list = new ArrayList<Robot>(size);
+        for (int k = 0; k < size; k++) {
+            list.add(checkpoint.readRobot());
+        }
+        return list;
+    }
+
 }
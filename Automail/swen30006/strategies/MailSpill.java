@@ -0,0 +1,270 @@
+package strategies;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.TreeMap;
+
+import automail.MailItem;
+import automail.PriorityMailItem;
+
+/**
+ * The Class MailSpill.
+ *
+ * @author Group W13-5
+ * @Description: MailSpill is the cold tier of the MailPool. Mail items that rank below the in-memory head of the pool
+ *               are kept as fixed size records in a memory-mapped file instead of on the heap, and are turned back
+ *               into mail items as the head drains. Records are kept in one queue per (priority, destination), so the
+ *               best spilled item is always at the front of the first queue.
+ */
+public class MailSpill
+{
+    /** Record layout: next record, id, destination, arrival, weight, priority (0 if not priority mail). */
+    private static final int RECORD_SIZE = 24;
+
+    private static final int NONE = -1;
+
+    /** The number of records the file grows by when it is full. */
+    private static final int GROW_RECORDS = 64 * 1024;
+
+    /** A queue of records with the same priority and destination, in pool order. */
+    private class Queue
+    {
+        int head = NONE;
+
+        int tail = NONE;
+    }
+
+    /** The queues from the best to the worst (priority, destination). */
+    private TreeMap<Long, Queue> queues = new TreeMap<Long, Queue>(Collections.reverseOrder());
+
+    /** True if ties of priority go to the lower floor first, as in the pool's order. */
+    private boolean lowFloorsFirst = false;
+
+    private File spillFile;
+
+    private RandomAccessFile file;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    /** The number of record slots mapped, the slots used so far and the first free slot. */
+    private int capacity = 0;
+
+    private int used = 0;
+
+    private int free = NONE;
+
+    private int size = 0;
+
+    /**
+     * Create the spill file, it is deleted when the spill is closed, or else when the JVM exits.
+     *
+     * @throws IOException if the file cannot be created
+     */
+    public MailSpill() throws IOException
+    {
+        spillFile = File.createTempFile("mailpool", ".spill");
+        spillFile.deleteOnExit();
+        file = new RandomAccessFile(spillFile, "rw");
+        channel = file.getChannel();
+        grow();
+    }
+
+    /**
+     * @return the number of spilled mail items
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Break ties of priority the same way as the pool, before anything is spilled.
+     *
+     * @param lowFloorsFirst true to take the lower floor first
+     */
+    public void setLowFloorsFirst(boolean lowFloorsFirst)
+    {
+        if (size > 0) {
+            throw new IllegalStateException("The tie break cannot change once items are spilled");
+        }
+        this.lowFloorsFirst = lowFloorsFirst;
+    }
+
+    /**
+     * Spill an item that ranks before every spilled item of the same priority and destination, i.e. one pushed out of
+     * the head of the pool.
+     *
+     * @param mailItem the mail item to spill
+     */
+    public void pushFront(MailItem mailItem) throws IOException
+    {
+        Queue queue = queueFor(mailItem);
+        int record = write(mailItem);
+        buffer.putInt(record * RECORD_SIZE, queue.head);
+        queue.head = record;
+        if (queue.tail == NONE) {
+            queue.tail = record;
+        }
+    }
+
+    /**
+     * Spill an item that ranks after every spilled item of the same priority and destination, i.e. a new arrival.
+     *
+     * @param mailItem the mail item to spill
+     */
+    public void pushBack(MailItem mailItem) throws IOException
+    {
+        Queue queue = queueFor(mailItem);
+        int record = write(mailItem);
+        if (queue.tail == NONE) {
+            queue.head = record;
+        } else {
+            buffer.putInt(queue.tail * RECORD_SIZE, record);
+        }
+        queue.tail = record;
+    }
+
+    /**
+     * Take the best spilled item back onto the heap.
+     *
+     * @return the mail item, or null if nothing is spilled
+     */
+    public MailItem popFront()
+    {
+        if (size == 0) {
+            return null;
+        }
+        Long key = queues.firstKey();
+        Queue queue = queues.get(key);
+        int record = queue.head;
+        MailItem mailItem = read(record);
+        queue.head = buffer.getInt(record * RECORD_SIZE);
+        if (queue.head == NONE) {
+            queues.remove(key);
+        }
+        // reuse the slot
+        buffer.putInt(record * RECORD_SIZE, free);
+        free = record;
+        size--;
+        return mailItem;
+    }
+
+    /**
+     * Read every spilled item in pool order, without removing them. Used to save a checkpoint.
+     *
+     * @return the spilled mail items
+     */
+    public ArrayList<MailItem> toList()
+    {
+        ArrayList<MailItem> list = new ArrayList<MailItem>(size);
+        for (Queue queue : queues.values()) {
+            for (int record = queue.head; record != NONE; record = buffer.getInt(record * RECORD_SIZE)) {
+                list.add(read(record));
+            }
+        }
+        return list;
+    }
+
+    private Queue queueFor(MailItem mailItem)
+    {
+        long priority = (mailItem instanceof PriorityMailItem) ? ((PriorityMailItem) mailItem).getPriorityLevel() : 1;
+        // queues are taken highest key first, so lower floors get the higher keys when they go first
+        int floor = lowFloorsFirst ? Integer.MAX_VALUE - mailItem.getDestFloor() : mailItem.getDestFloor();
+        Long key = (priority << 32) | floor;
+        Queue queue = queues.get(key);
+        if (queue == null) {
+            queue = new Queue();
+            queues.put(key, queue);
+        }
+        return queue;
+    }
+
+    private int write(MailItem mailItem) throws IOException
+    {
+        int record;
+        if (free != NONE) {
+            record = free;
+            free = buffer.getInt(record * RECORD_SIZE);
+        } else {
+            if (used == capacity) {
+                grow();
+            }
+            record = used++;
+        }
+        int offset = record * RECORD_SIZE;
+        buffer.putInt(offset, NONE);
+        buffer.putInt(offset + 4, Integer.parseInt(mailItem.getId()));
+        buffer.putInt(offset + 8, mailItem.getDestFloor());
+        buffer.putInt(offset + 12, mailItem.getArrivalTime());
+        buffer.putInt(offset + 16, mailItem.getWeight());
+        buffer.putInt(offset + 20,
+            (mailItem instanceof PriorityMailItem) ? ((PriorityMailItem) mailItem).getPriorityLevel() : 0);
+        size++;
+        return record;
+    }
+
+    /**
+     * Turn a record back into a mail item. A record keeps the fields of the item, not the item, so this makes a new
+     * MailItem equal to the one spilled but not the same object. That is only correct because mail is spilled while it
+     * waits in the pool: it has not been loaded or delivered, so its delivered flag is still unset, nothing outside the
+     * pool holds it, and it is always read back before it can be loaded.
+     */
+    private MailItem read(int record)
+    {
+        int offset = record * RECORD_SIZE;
+        String id = String.valueOf(buffer.getInt(offset + 4));
+        int destination = buffer.getInt(offset + 8);
+        int arrival = buffer.getInt(offset + 12);
+        int weight = buffer.getInt(offset + 16);
+        int priority = buffer.getInt(offset + 20);
+        return (priority == 0) ? new MailItem(id, destination, arrival, weight)
+            : new PriorityMailItem(id, destination, arrival, weight, priority);
+    }
+
+    /**
+     * Drop the mapping, close the file and delete it. The spilled items are lost, so this is only for the end of a run.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException
+    {
+        if (file == null) {
+            return;
+        }
+        // there is no way to unmap a buffer, it is released once collected
+        buffer = null;
+        queues.clear();
+        size = 0;
+        try {
+            channel.close();
+            file.close();
+        } finally {
+            file = null;
+            channel = null;
+            // a file still mapped cannot be deleted on some systems, it is then left to deleteOnExit
+            spillFile.delete();
+        }
+    }
+
+    /**
+     * Map a larger part of the file, the old mapping is dropped and its records stay in the file.
+     */
+    private void grow() throws IOException
+    {
+        capacity += GROW_RECORDS;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+    }
+
+}
@@ -0,0 +1,342 @@
+package strategies;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import automail.Building;
+import automail.Checkpoint;
+import automail.Clock;
+import automail.MailItem;
+import automail.Robot;
+import automail.Simulation;
+import exceptions.ItemTooHeavyException;
+
+/**
+ * The Class ZonedMailPool.
+ *
+ * @author Group W13-5
+ * @Description: ZonedMailPool splits the floors of a tall building into contiguous zones, each with its own MailPool
+ *               and its own robots, so trips stay short and each pool only schedules its own floors. Arrivals go to
+ *               the pool of their destination zone. With zone mailrooms each zone's robots wait at the lowest floor of
+ *               the zone, assuming mail reaches the zone mailrooms as soon as it arrives at the building; otherwise
+ *               they all use the building mailroom. Robots start at the building mailroom and travel to their zone.
+ *               An optional rebalancer moves idle robots from zones with an empty pool to the zone with the most mail
+ *               per robot. Zones share nothing while they step, so they can be stepped on separate threads.
+ */
+public class ZonedMailPool implements IMailPool
+{
+    /** The pool of each zone. */
+    private final MailPool[] zones;
+
+    /** The lowest floor of each zone, and one past the top floor at the end. */
+    private final int[] lowestFloor;
+
+    private final int[] mailroom;
+
+    /** The robots of each zone, in robot order. */
+    private final ArrayList<ArrayList<Robot>> zoneRobots = new ArrayList<ArrayList<Robot>>();
+
+    private final IdentityHashMap<Robot, Integer> zoneOf = new IdentityHashMap<Robot, Integer>();
+
+    /** The position of each robot in the fleet. */
+    private final IdentityHashMap<Robot, Integer> order = new IdentityHashMap<Robot, Integer>();
+
+    /** The robots of each zone registered as waiting but not yet handed to the zone's pool. */
+    private final ArrayList<ArrayList<Robot>> idle = new ArrayList<ArrayList<Robot>>();
+
+    /** The ticks between rebalancing, 0 never rebalances. */
+    private final int rebalanceInterval;
+
+    /**
+     * Instantiates a ZonedMailPool.
+     *
+     * @param zones the pool of each zone, created empty
+     * @param zoneMailrooms true for a mailroom at the lowest floor of each zone, false to use the building mailroom
+     * @param rebalanceInterval the ticks between moving idle robots to busy zones, 0 for never
+     */
+    public ZonedMailPool(MailPool[] zones, boolean zoneMailrooms, int rebalanceInterval)
+    {
+        this.zones = zones;
+        this.rebalanceInterval = rebalanceInterval;
+        int n = zones.length;
+        if (n > Building.FLOORS) {
+            throw new IllegalArgumentException("More zones than floors");
+        }
+        lowestFloor = new int[n + 1];
+        mailroom = new int[n];
+        for (int z = 0; z <= n; z++) {
+            lowestFloor[z] = Building.LOWEST_FLOOR + z * Building.FLOORS / n;
+        }
+        for (int z = 0; z < n; z++) {
+            mailroom[z] = zoneMailrooms ? lowestFloor[z] : Building.MAILROOM_LOCATION;
+            zoneRobots.add(new ArrayList<Robot>());
+            idle.add(new ArrayList<Robot>());
+        }
+    }
+
+    /**
+     * Share the robots between the zones in turn and send each to its zone's mailroom. Robots that already have a
+     * zone, restored from a checkpoint, keep it.
+     *
+     * @param robots the robots, there must be at least one per zone
+     * @param maxWeight the heaviest mail item, every zone must be able to gather the group that carries it
+     */
+    public void assignRobots(Robot[] robots, int maxWeight)
+    {
+        if (robots.length < zones.length) {
+            throw new IllegalArgumentException("Fewer robots than zones");
+        }
+        int group = (maxWeight <= Robot.INDIVIDUAL_MAX_WEIGHT) ? 1 : (maxWeight <= Robot.PAIR_MAX_WEIGHT) ? 2 : 3;
+        if (rebalanceInterval > 0 && robots.length <= zones.length * (group - 1)) {
+            // otherwise every zone can be left holding part of a group, with no idle robot to move
+            throw new IllegalArgumentException("Mail of " + maxWeight + "g needs more than "
+                + zones.length * (group - 1) + " robots for " + zones.length + " zones");
+        }
+        for (int i = 0; i < robots.length; i++) {
+            if (zoneOf.containsKey(robots[i])) {
+                // restored from a checkpoint
+                continue;
+            }
+            int z = i % zones.length;
+            zoneOf.put(robots[i], z);
+            order.put(robots[i], i);
+            zoneRobots.get(z).add(robots[i]);
+            robots[i].sendTo(mailroom[z]);
+        }
+        for (int z = 0; z < zones.length; z++) {
+            if (rebalanceInterval == 0 && zoneRobots.get(z).size() < group) {
+                throw new IllegalArgumentException("Zone " + z + " has fewer than the " + group
+                    + " robots needed for mail of " + maxWeight + "g");
+            }
+        }
+    }
+
+    public int getZoneCount()
+    {
+        return zones.length;
+    }
+
+    /**
+     * @param zone the zone
+     * @return the robots of the zone, which only change when rebalancing
+     */
+    public List<Robot> getRobots(int zone)
+    {
+        return zoneRobots.get(zone);
+    }
+
+    /**
+     * @param floor a floor of the building
+     * @return the zone the floor belongs to
+     */
+    public int zoneOf(int floor)
+    {
+        int z = (floor - Building.LOWEST_FLOOR) * zones.length / Building.FLOORS;
+        // the integer split can put a boundary floor one zone out
+        while (z > 0 && floor < lowestFloor[z]) {
+            z--;
+        }
+        while (z < zones.length - 1 && floor >= lowestFloor[z + 1]) {
+            z++;
+        }
+        return z;
+    }
+
+    @Override
+    public void addToPool(MailItem mailItem)
+    {
+        zones[zoneOf(mailItem.getDestFloor())].addToPool(mailItem);
+    }
+
+    /**
+     * {@inheritDoc} Rebalance if it is due, and step every zone in turn.
+     */
+    @Override
+    public void step() throws ItemTooHeavyException
+    {
+        rebalance();
+        for (IMailPool zone : zones) {
+            zone.step();
+        }
+    }
+
+    /**
+     * Hand the robots that came back since the last call to their zones, then move robots waiting in zones with an
+     * empty pool to the busiest zone if rebalancing is due. Call before stepping the zones.
+     */
+    public void rebalance()
+    {
+        for (int z = 0; z < zones.length; z++) {
+            ArrayList<Robot> waiting = idle.get(z);
+            for (int k = 0; k < waiting.size(); k++) {
+                zones[z].registerWaiting(waiting.get(k));
+            }
+            waiting.clear();
+        }
+        if (rebalanceInterval == 0 || Clock.Time() % rebalanceInterval != 0) {
+            return;
+        }
+        for (int from = 0; from < zones.length; from++) {
+            // only robots of a zone with no mail move, and every zone keeps at least one robot
+            while (zones[from].getPoolSize() == 0 && zoneRobots.get(from).size() > 1) {
+                int to = busiestZone();
+                if (to == from || zones[to].getPoolSize() == 0) {
+                    break;
+                }
+                Robot r = zones[from].takeWaiting();
+                if (r == null) {
+                    break;
+                }
+                move(r, from, to);
+                if (!Simulation.isQuiet()) {
+                    System.out.printf("T: %3d > %7s moved from zone %d to zone %d%n", Clock.Time(), r.getID(), from,
+                        to);
+                }
+                r.sendTo(mailroom[to]);
+            }
+        }
+    }
+
+    /**
+     * @return the zone with the most mail per robot
+     */
+    private int busiestZone()
+    {
+        int busiest = 0;
+        double most = -1;
+        for (int z = 0; z < zones.length; z++) {
+            double load = (double) zones[z].getPoolSize() / Math.max(1, zoneRobots.get(z).size());
+            if (load > most) {
+                most = load;
+                busiest = z;
+            }
+        }
+        return busiest;
+    }
+
+    private void move(Robot r, int from, int to)
+    {
+        zoneRobots.get(from).remove(r);
+        ArrayList<Robot> robots = zoneRobots.get(to);
+        // keep each zone's robots in robot order, so stepping order does not depend on the moves
+        int k = 0;
+        while (k < robots.size() && order.get(robots.get(k)) < order.get(r)) {
+            k++;
+        }
+        robots.add(k, r);
+        zoneOf.put(r, to);
+    }
+
+    /**
+     * {@inheritDoc} The robot is handed to its zone's pool at the start of the next step, when it may also be moved.
+     */
+    @Override
+    public void registerWaiting(Robot robot)
+    {
+        if (rebalanceInterval > 0) {
+            idle.get(zoneOf.get(robot)).add(robot);
+        } else {
+            zones[zoneOf.get(robot)].registerWaiting(robot);
+        }
+    }
+
+    /**
+     * @param zone the zone
+     * @return the pool of the zone
+     */
+    public IMailPool getZone(int zone)
+    {
+        return zones[zone];
+    }
+
+    @Override
+    public int getPoolSize()
+    {
+        int size = 0;
+        for (IMailPool zone : zones) {
+            size += zone.getPoolSize();
+        }
+        return size;
+    }
+
+    /**
+     * {@inheritDoc} Zone by zone, each zone is loaded in its own order.
+     */
+    @Override
+    public List<MailItem> getQueued()
+    {
+        ArrayList<MailItem> queued = new ArrayList<MailItem>();
+        for (IMailPool zone : zones) {
+            queued.addAll(zone.getQueued());
+        }
+        return queued;
+    }
+
+    @Override
+    public void printState(PrintStream out)
+    {
+        for (int z = 0; z < zones.length; z++) {
+            out.printf("  Zone %d: floors %d to %d, mailroom %d, robots %d%n", z, lowestFloor[z],
+                lowestFloor[z + 1] - 1, mailroom[z], zoneRobots.get(z).size());
+            zones[z].printState(out);
+        }
+    }
+
+    /**
+     * {@inheritDoc} The robots of each zone, the robots not yet handed to it, then each zone's pool.
+     */
+    @Override
+    public void writeState(Checkpoint checkpoint) throws IOException
+    {
+        DataOutputStream out = checkpoint.getOutput();
+        out.writeInt(zones.length);
+        for (int z = 0; z < zones.length; z++) {
+            out.writeInt(zoneRobots.get(z).size());
+            for (Robot r : zoneRobots.get(z)) {
+                checkpoint.writeRobot(r);
+                out.writeInt(order.get(r));
+            }
+            out.writeInt(idle.get(z).size());
+            for (Robot r : idle.get(z)) {
+                checkpoint.writeRobot(r);
+            }
+        }
+        for (IMailPool zone : zones) {
+            zone.writeState(checkpoint);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readState(Checkpoint checkpoint) throws IOException
+    {
+        DataInputStream in = checkpoint.getInput();
+        if (in.readInt() != zones.length) {
+            throw new IOException("The checkpoint was saved with a different number of zones.");
+        }
+        for (int z = 0; z < zones.length; z++) {
+            int robots = in.readInt();
+            for (int k = 0; k < robots; k++) {
+                Robot r = checkpoint.readRobot();
+                zoneOf.put(r, z);
+                order.put(r, in.readInt());
+                zoneRobots.get(z).add(r);
+            }
+            int waiting = in.readInt();
+            for (int k = 0; k < waiting; k++) {
+                idle.get(z).add(checkpoint.readRobot());
+            }
+        }
+        for (IMailPool zone : zones) {
+            zone.readState(checkpoint);
+        }
+    }
+
+}